@@ -0,0 +1,310 @@
+package nlp.assignments;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nlp.classify.*;
+import nlp.math.SloppyMath;
+import nlp.util.Counter;
+import nlp.util.Indexer;
+
+/**
+ * Classifies strings (proper names) with one character n-gram language model
+ * per label: the chosen label maximizes P(label) P(name | label), where each
+ * label's model is an interpolated Witten-Bell n-gram model over the name's
+ * characters, padded with start symbols and ended with a stop symbol.
+ * <p/>
+ * All labels share one count table. Its rows are keyed by 64-bit hashes of
+ * n-grams (or of their contexts) and have one count column per label, so
+ * each lookup while scoring a name serves every label at once. The hashes
+ * of a position's n-grams of every order are built by extending the context
+ * one character further back at a time, straight from the string, so
+ * getLabel() allocates nothing.
+ */
+public class CharacterNGramClassifier implements
+		ProbabilisticClassifier<String, String> {
+
+	private static final char START = '\u0002';
+	private static final char STOP = '\u0003';
+	private static final long CONTEXT_SEED = 0x6a09e667f3bcc909L;
+	private static final long TYPES_SEED = 0xbb67ae8584caa73bL;
+	private static final long NGRAM_SEED = 0x3c6ef372fe94f82bL;
+
+	public static class Factory implements
+			ProbabilisticClassifierFactory<String, String> {
+		int order;
+
+		public ProbabilisticClassifier<String, String> trainClassifier(
+				List<LabeledInstance<String, String>> trainingData) {
+			Indexer<String> labelIndexer = new Indexer<String>();
+			for (LabeledInstance<String, String> datum : trainingData) {
+				labelIndexer.add(datum.getLabel());
+			}
+			int numLabels = labelIndexer.size();
+			CountTable counts = new CountTable(numLabels);
+			double[] labelCounts = new double[numLabels];
+			boolean[] seenCharacters = new boolean[Character.MAX_VALUE + 1];
+			int vocabularySize = 0;
+			for (LabeledInstance<String, String> datum : trainingData) {
+				int label = labelIndexer.indexOf(datum.getLabel());
+				String name = datum.getInput();
+				labelCounts[label] += 1.0;
+				for (int i = 0; i <= name.length(); i++) {
+					char character = characterAt(name, i);
+					if (!seenCharacters[character]) {
+						seenCharacters[character] = true;
+						vocabularySize++;
+					}
+					long context = 0L;
+					for (int k = 1; k <= order; k++) {
+						int ngramRow = counts.getOrAddRow(ngramKey(context,
+								character));
+						if (counts.increment(ngramRow, label) == 1)
+							counts.increment(counts.getOrAddRow(typesKey(context)),
+									label);
+						counts.increment(counts.getOrAddRow(contextKey(context)),
+								label);
+						context = extend(context, characterAt(name, i - k));
+					}
+				}
+			}
+			double[] logPriors = new double[numLabels];
+			for (int label = 0; label < numLabels; label++) {
+				logPriors[label] = Math.log(labelCounts[label]
+						/ trainingData.size());
+			}
+			return new CharacterNGramClassifier(order, labelIndexer, counts,
+					logPriors, vocabularySize + 1);
+		}
+
+		/**
+		 * Order is the n in n-gram: each character is predicted from the
+		 * order - 1 before it.
+		 */
+		public Factory(int order) {
+			this.order = order;
+		}
+	}
+
+	/**
+	 * An open-addressing hash table from nonzero 64-bit keys to rows of
+	 * numLabels int counts, all in one array.
+	 */
+	static class CountTable {
+		int numLabels;
+		long[] keys;
+		int[] counts;
+		int size;
+		int mask;
+
+		/**
+		 * The row of the key, or -1 if it has none.
+		 */
+		int findRow(long key) {
+			int slot = (int) key & mask;
+			while (true) {
+				long slotKey = keys[slot];
+				if (slotKey == key)
+					return slot;
+				if (slotKey == 0L)
+					return -1;
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		int getOrAddRow(long key) {
+			int slot = (int) key & mask;
+			while (keys[slot] != 0L) {
+				if (keys[slot] == key)
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+			if (2 * (size + 1) > keys.length) {
+				grow();
+				return getOrAddRow(key);
+			}
+			keys[slot] = key;
+			size++;
+			return slot;
+		}
+
+		/**
+		 * Adds one to the row's count for the label, returning the new count.
+		 */
+		int increment(int row, int label) {
+			return ++counts[row * numLabels + label];
+		}
+
+		int getCount(int row, int label) {
+			return counts[row * numLabels + label];
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldCounts = counts;
+			keys = new long[2 * oldKeys.length];
+			counts = new int[keys.length * numLabels];
+			mask = keys.length - 1;
+			for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+				long key = oldKeys[oldSlot];
+				if (key == 0L)
+					continue;
+				int slot = (int) key & mask;
+				while (keys[slot] != 0L) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				System.arraycopy(oldCounts, oldSlot * numLabels, counts, slot
+						* numLabels, numLabels);
+			}
+		}
+
+		CountTable(int numLabels) {
+			this.numLabels = numLabels;
+			this.keys = new long[1024];
+			this.counts = new int[keys.length * numLabels];
+			this.mask = keys.length - 1;
+		}
+	}
+
+	int order;
+	Indexer<String> labelIndexer;
+	CountTable counts;
+	double[] logPriors;
+	/**
+	 * The number of distinct characters seen in training, plus one for
+	 * unseen ones; the base of the interpolation is uniform over these.
+	 */
+	int vocabularySize;
+	private transient ThreadLocal<double[][]> buffers;
+
+	/**
+	 * The name's character at position i, START before its beginning and
+	 * STOP at its end.
+	 */
+	static char characterAt(String name, int i) {
+		if (i < 0)
+			return START;
+		if (i == name.length())
+			return STOP;
+		return name.charAt(i);
+	}
+
+	/**
+	 * The hash of the context with one more character prepended.
+	 */
+	static long extend(long context, char character) {
+		return (context + character + 1) * 0x9e3779b97f4a7c15L;
+	}
+
+	static long contextKey(long context) {
+		return mix(context ^ CONTEXT_SEED);
+	}
+
+	static long typesKey(long context) {
+		return mix(context ^ TYPES_SEED);
+	}
+
+	static long ngramKey(long context, char character) {
+		return mix((context ^ NGRAM_SEED) + character);
+	}
+
+	/**
+	 * The MurmurHash3 64-bit finalizer, never returning the empty key 0.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h == 0L ? 1L : h);
+	}
+
+	/**
+	 * Fills in log P(label) + log P(name | label) for every label.
+	 */
+	private void computeLogScores(String name, double[] logScores,
+			double[] probabilities) {
+		int numLabels = logScores.length;
+		System.arraycopy(logPriors, 0, logScores, 0, numLabels);
+		for (int i = 0; i <= name.length(); i++) {
+			char character = characterAt(name, i);
+			Arrays.fill(probabilities, 1.0 / vocabularySize);
+			long context = 0L;
+			for (int k = 1; k <= order; k++) {
+				int contextRow = counts.findRow(contextKey(context));
+				if (contextRow < 0)
+					break;
+				int typesRow = counts.findRow(typesKey(context));
+				int ngramRow = counts.findRow(ngramKey(context, character));
+				for (int label = 0; label < numLabels; label++) {
+					int total = counts.getCount(contextRow, label);
+					if (total == 0)
+						continue;
+					int types = counts.getCount(typesRow, label);
+					int count = (ngramRow < 0 ? 0 : counts.getCount(ngramRow,
+							label));
+					probabilities[label] = (count + types * probabilities[label])
+							/ (total + types);
+				}
+				context = extend(context, characterAt(name, i - k));
+			}
+			for (int label = 0; label < numLabels; label++) {
+				logScores[label] += SloppyMath.fastLog(probabilities[label]);
+			}
+		}
+	}
+
+	/**
+	 * This thread's arrays of one score and one probability per label.
+	 */
+	private double[][] getBuffers() {
+		ThreadLocal<double[][]> threadBuffers = buffers;
+		if (threadBuffers == null) {
+			threadBuffers = new ThreadLocal<double[][]>();
+			buffers = threadBuffers;
+		}
+		double[][] arrays = threadBuffers.get();
+		if (arrays == null) {
+			arrays = new double[2][logPriors.length];
+			threadBuffers.set(arrays);
+		}
+		return arrays;
+	}
+
+	public Counter<String> getProbabilities(String name) {
+		double[][] arrays = getBuffers();
+		double[] logScores = arrays[0];
+		computeLogScores(name, logScores, arrays[1]);
+		double logNormalizer = SloppyMath.logSumExp(logScores, 0,
+				logScores.length);
+		Counter<String> probabilities = new Counter<String>();
+		for (int label = 0; label < logScores.length; label++) {
+			probabilities.setCount(labelIndexer.get(label), SloppyMath
+					.fastExp(logScores[label] - logNormalizer));
+		}
+		return probabilities;
+	}
+
+	public String getLabel(String name) {
+		double[][] arrays = getBuffers();
+		double[] logScores = arrays[0];
+		computeLogScores(name, logScores, arrays[1]);
+		int best = 0;
+		for (int label = 1; label < logScores.length; label++) {
+			if (logScores[label] > logScores[best])
+				best = label;
+		}
+		return labelIndexer.get(best);
+	}
+
+	CharacterNGramClassifier(int order, Indexer<String> labelIndexer,
+			CountTable counts, double[] logPriors, int vocabularySize) {
+		this.order = order;
+		this.labelIndexer = labelIndexer;
+		this.counts = counts;
+		this.logPriors = logPriors;
+		this.vocabularySize = vocabularySize;
+	}
+}
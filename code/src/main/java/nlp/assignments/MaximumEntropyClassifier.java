@@ -1,22 +1,36 @@
 package nlp.assignments;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nlp.classify.*;
-import nlp.math.DifferentiableFunction;
+import nlp.math.DataParallelObjective;
 import nlp.math.DoubleArrays;
-import nlp.math.GradientMinimizer;
+import nlp.math.LBFGSCheckpoint;
 import nlp.math.LBFGSMinimizer;
+import nlp.math.OWLQNMinimizer;
+import nlp.math.SloppyMath;
+import nlp.math.SparseGradient;
+import nlp.math.StochasticDifferentiableFunction;
+import nlp.math.StochasticMinimizer;
+import nlp.util.ConcurrentIndexer;
 import nlp.util.Counter;
 import nlp.util.Indexer;
-import nlp.util.Pair;
+import nlp.util.Stopwatch;
 
 /**
- * Maximum entropy classifier for assignment 2. You will have to fill in the
- * code gaps marked by TODO flags. To test whether your classifier is
- * functioning correctly, you can invoke the main method of this class using
+ * Maximum entropy classifier for assignment 2. To test whether the classifier
+ * is functioning correctly, you can invoke the main method of this class using
  * <p/>
  * java nlp.assignments.MaximumEntropyClassifier
  * <p/>
@@ -33,31 +47,162 @@ public class MaximumEntropyClassifier<I, F, L> implements
 
 		double sigma;
 		int iterations;
+		double l1Weight;
+		int numThreads = 1;
+		boolean printProgress = true;
+		StochasticMinimizer stochasticMinimizer;
 		FeatureExtractor<I, F> featureExtractor;
+		int featureHashBits;
+		MaximumEntropyClassifier<I, F, L> warmStart;
+		File checkpointFile;
+		int checkpointInterval;
 
 		public ProbabilisticClassifier<I, L> trainClassifier(
 				List<LabeledInstance<I, L>> trainingData) {
 			// build data encodings so the inner loops can be efficient
-			Encoding<F, L> encoding = buildEncoding(trainingData);
+			Encoder encoder = new Encoder();
+			SparseDataMatrix data = encodeData(trainingData, encoder);
+			return trainClassifier(data, encoder.getEncoding());
+		}
+
+		/**
+		 * Trains on data that has already been encoded, for instance a
+		 * SparseDataMatrix mapped from disk (with its Encoding's indexers
+		 * stored alongside, see CounterCodec.writeIndexer()). Rows are data,
+		 * columns feature indexes and row labels label indexes of the
+		 * encoding.
+		 */
+		public MaximumEntropyClassifier<I, F, L> trainClassifier(
+				SparseDataMatrix data, Encoding<F, L> encoding) {
 			IndexLinearizer indexLinearizer = buildIndexLinearizer(encoding);
-			double[] initialWeights = buildInitialWeights(indexLinearizer);
-			EncodedDatum[] data = encodeData(trainingData, encoding);
-			// build a minimizer object
-			GradientMinimizer minimizer = new LBFGSMinimizer(iterations);
+			double[] initialWeights = buildInitialWeights(encoding,
+					indexLinearizer);
 			// build the objective function for this data
-			DifferentiableFunction objective = new ObjectiveFunction<F, L>(
+			ObjectiveFunction<F, L> objective = new ObjectiveFunction<F, L>(
 					encoding, data, indexLinearizer, sigma);
+			objective.setNumThreads(numThreads);
 			// learn our voting weights
-			double[] weights = minimizer.minimize(objective, initialWeights,
-					1e-4);
+			double[] weights;
+			if (stochasticMinimizer != null) {
+				weights = stochasticMinimizer.minimize(objective,
+						initialWeights, 1e-4);
+			} else {
+				LBFGSMinimizer minimizer;
+				if (l1Weight > 0.0) {
+					minimizer = new OWLQNMinimizer(l1Weight, iterations);
+				} else {
+					minimizer = new LBFGSMinimizer(iterations);
+					minimizer
+							.setLineSearch(LBFGSMinimizer.LineSearch.STRONG_WOLFE);
+				}
+				weights = minimizeWithCheckpoints(minimizer, objective,
+						initialWeights, encoding, indexLinearizer);
+			}
+			objective.shutdown();
 			// build a classifier using these weights (and the data encodings)
 			return new MaximumEntropyClassifier<I, F, L>(weights, encoding,
 					indexLinearizer, featureExtractor);
 		}
 
-		private double[] buildInitialWeights(IndexLinearizer indexLinearizer) {
-			return DoubleArrays.constantArray(0.0,
+		private double[] buildInitialWeights(Encoding<F, L> encoding,
+				IndexLinearizer indexLinearizer) {
+			double[] weights = DoubleArrays.constantArray(0.0,
 					indexLinearizer.getNumLinearIndexes());
+			if (warmStart == null)
+				return weights;
+			if (encoding instanceof HashedEncoding)
+				return buildHashedInitialWeights(
+						(HashedEncoding<F, L>) encoding, indexLinearizer, weights);
+			for (int featureIndex = 0; featureIndex < encoding.getNumFeatures(); featureIndex++) {
+				F feature = encoding.getFeature(featureIndex);
+				for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); labelIndex++) {
+					weights[indexLinearizer.getLinearIndex(featureIndex,
+							labelIndex)] = warmStart.getWeight(feature, encoding
+							.getLabel(labelIndex));
+				}
+			}
+			return weights;
+		}
+
+		/**
+		 * Warm-start weights for a hashed encoding: copied slot by slot from
+		 * a hashed classifier with the same number of slots, or from an
+		 * indexed one by hashing its features into the slots.
+		 */
+		private double[] buildHashedInitialWeights(
+				HashedEncoding<F, L> encoding, IndexLinearizer indexLinearizer,
+				double[] weights) {
+			Encoding<F, L> previous = warmStart.encoding;
+			if (previous instanceof HashedEncoding) {
+				if (previous.getNumFeatures() != encoding.getNumFeatures())
+					throw new IllegalArgumentException(
+							"Cannot warm-start from a classifier with "
+									+ previous.getNumFeatures()
+									+ " feature slots instead of "
+									+ encoding.getNumFeatures());
+				for (int featureIndex = 0; featureIndex < encoding
+						.getNumFeatures(); featureIndex++) {
+					for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); labelIndex++) {
+						int previousLabelIndex = previous.getLabelIndex(encoding
+								.getLabel(labelIndex));
+						if (previousLabelIndex < 0)
+							continue;
+						weights[indexLinearizer.getLinearIndex(featureIndex,
+								labelIndex)] = warmStart.getWeight(featureIndex,
+								previousLabelIndex);
+					}
+				}
+				return weights;
+			}
+			for (int previousIndex = 0; previousIndex < previous
+					.getNumFeatures(); previousIndex++) {
+				F feature = previous.getFeature(previousIndex);
+				int featureIndex = encoding.getFeatureIndex(feature);
+				double sign = encoding.getFeatureSign(feature);
+				for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); labelIndex++) {
+					weights[indexLinearizer.getLinearIndex(featureIndex,
+							labelIndex)] += sign
+							* warmStart.getWeight(feature, encoding
+									.getLabel(labelIndex));
+				}
+			}
+			return weights;
+		}
+
+		/**
+		 * Runs the minimizer, resuming from the checkpoint file if there is
+		 * one and checkpointing to it as it goes. A checkpoint whose
+		 * fingerprint does not match the encoding's first features is
+		 * refused.
+		 */
+		private double[] minimizeWithCheckpoints(LBFGSMinimizer minimizer,
+				ObjectiveFunction<F, L> objective, double[] initialWeights,
+				Encoding<F, L> encoding, IndexLinearizer indexLinearizer) {
+			if (checkpointFile == null)
+				return minimizer.minimize(objective, initialWeights, 1e-4,
+						printProgress);
+			minimizer.setCheckpointFile(checkpointFile, checkpointInterval);
+			minimizer.setCheckpointFingerprint(encoding
+					.getFingerprint(encoding.getNumFeatures()));
+			if (!checkpointFile.exists())
+				return minimizer.minimize(objective, initialWeights, 1e-4,
+						printProgress);
+			LBFGSCheckpoint checkpoint;
+			try {
+				checkpoint = LBFGSCheckpoint.read(checkpointFile);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			int dimension = checkpoint.getDimension();
+			if (dimension > indexLinearizer.getNumLinearIndexes()
+					|| dimension % indexLinearizer.numLabels != 0
+					|| checkpoint.getFingerprint() != encoding
+							.getFingerprint(dimension / indexLinearizer.numLabels))
+				throw new RuntimeException("Checkpoint " + checkpointFile
+						+ " does not match the encoding of the training data"
+						+ " (its labels or first features differ, or are"
+						+ " numbered in another order)");
+			return minimizer.resume(objective, checkpoint, 1e-4, printProgress);
 		}
 
 		private IndexLinearizer buildIndexLinearizer(Encoding<F, L> encoding) {
@@ -65,37 +210,307 @@ public class MaximumEntropyClassifier<I, F, L> implements
 					encoding.getNumLabels());
 		}
 
-		private Encoding<F, L> buildEncoding(List<LabeledInstance<I, L>> data) {
-			Indexer<F> featureIndexer = new Indexer<F>();
-			Indexer<L> labelIndexer = new Indexer<L>();
-			for (LabeledInstance<I, L> labeledInstance : data) {
-				L label = labeledInstance.getLabel();
-				Counter<F> features = featureExtractor
-						.extractFeatures(labeledInstance.getInput());
-				LabeledFeatureVector<F, L> labeledDatum = new BasicLabeledFeatureVector<F, L>(
-						label, features);
-				labelIndexer.add(labeledDatum.getLabel());
-				for (F feature : labeledDatum.getFeatures().keySet()) {
-					featureIndexer.add(feature);
+		/**
+		 * Runs the feature extractor over the training data, once per
+		 * instance, indexing (or hashing) features and labels as they come.
+		 * With more than one thread, the data is split into one contiguous
+		 * block per thread, all adding to the encoder's shared indexers;
+		 * feature and label numbering then depends on thread timing.
+		 */
+		private SparseDataMatrix encodeData(final List<LabeledInstance<I, L>> data,
+				final Encoder encoder) {
+			if (numThreads <= 1)
+				return encoder.encode(data, 0, data.size());
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			List<Future<SparseDataMatrix>> blocks = new ArrayList<Future<SparseDataMatrix>>();
+			for (int thread = 0; thread < numThreads; thread++) {
+				final int start = (int) ((long) data.size() * thread / numThreads);
+				final int end = (int) ((long) data.size() * (thread + 1) / numThreads);
+				blocks.add(executor.submit(new Callable<SparseDataMatrix>() {
+					public SparseDataMatrix call() {
+						return encoder.encode(data, start, end);
+					}
+				}));
+			}
+			List<SparseDataMatrix> encodedBlocks = new ArrayList<SparseDataMatrix>();
+			try {
+				for (Future<SparseDataMatrix> block : blocks) {
+					encodedBlocks.add(block.get());
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+			return SparseDataMatrix.concatenate(encodedBlocks);
+		}
+
+		/**
+		 * The indexers (or feature hashing) that training data is encoded
+		 * with, safe to use from several threads at once.
+		 */
+		private class Encoder {
+			ConcurrentIndexer<F> featureIndexer = new ConcurrentIndexer<F>();
+			ConcurrentIndexer<L> labelIndexer = new ConcurrentIndexer<L>();
+			HashedEncoding<F, L> hashedEncoding = (featureHashBits > 0 ? new HashedEncoding<F, L>(
+					featureHashBits, null)
+					: null);
+
+			/**
+			 * Encodes instances start to end - 1 of the data.
+			 */
+			SparseDataMatrix encode(List<LabeledInstance<I, L>> data,
+					int start, int end) {
+				SparseDataMatrix.Builder builder = new SparseDataMatrix.Builder();
+				int[] featureIds = new int[16];
+				double[] counts = new double[16];
+				for (int i = start; i < end; i++) {
+					LabeledInstance<I, L> labeledInstance = data.get(i);
+					int label = labelIndexer.addAndGetIndex(labeledInstance
+							.getLabel());
+					Counter<F> features = featureExtractor
+							.extractFeatures(labeledInstance.getInput());
+					if (features.size() > featureIds.length) {
+						featureIds = new int[2 * features.size()];
+						counts = new double[featureIds.length];
+					}
+					int k = 0;
+					for (Map.Entry<F, Double> entry : features.getEntrySet()) {
+						F feature = entry.getKey();
+						double count = entry.getValue();
+						if (hashedEncoding != null) {
+							featureIds[k] = hashedEncoding.getFeatureIndex(feature);
+							count *= hashedEncoding.getFeatureSign(feature);
+						} else {
+							featureIds[k] = featureIndexer.addAndGetIndex(feature);
+						}
+						counts[k] = count;
+						k++;
+					}
+					builder.addRow(label, featureIds, counts, k);
+				}
+				return builder.build();
+			}
+
+			/**
+			 * The encoding of everything encoded so far. Must only be called
+			 * once all encoding is done.
+			 */
+			Encoding<F, L> getEncoding() {
+				if (hashedEncoding != null) {
+					hashedEncoding.labelIndexer = labelIndexer.freeze();
+					if ((long) hashedEncoding.getNumFeatures()
+							* hashedEncoding.getNumLabels() > Integer.MAX_VALUE)
+						throw new IllegalArgumentException("2^"
+								+ hashedEncoding.getNumBits() + " feature slots for "
+								+ hashedEncoding.getNumLabels()
+								+ " labels are too many weights; use fewer hash bits");
+					return hashedEncoding;
+				}
+				return new Encoding<F, L>(featureIndexer.freeze(),
+						labelIndexer.freeze());
+			}
+		}
+
+		/**
+		 * Runs numFolds-fold cross-validation of every combination of the
+		 * given sigmas and iteration counts, and prints and returns the mean
+		 * held-out accuracy and total training time of each. The data is
+		 * encoded once, and every fold trains on (a copy of) its rows of the
+		 * same encoding. The numThreads threads each train one (fold,
+		 * configuration) pair at a time, single-threaded. Folds are a fixed
+		 * random split. Other settings (L1 weight, hashing) are those of this
+		 * factory; stochastic minimizers, warm starts and checkpoints are not
+		 * used.
+		 */
+		public List<CrossValidationResult> crossValidate(
+				List<LabeledInstance<I, L>> data, int numFolds,
+				double[] sigmas, int[] iterationCounts) {
+			Stopwatch stopwatch = new Stopwatch();
+			Encoder encoder = new Encoder();
+			final SparseDataMatrix matrix = encodeData(data, encoder);
+			final Encoding<F, L> encoding = encoder.getEncoding();
+			int numData = matrix.getNumRows();
+			int[] order = new int[numData];
+			for (int i = 0; i < numData; i++) {
+				order[i] = i;
+			}
+			Random random = new Random(0);
+			for (int i = numData - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int temp = order[i];
+				order[i] = order[j];
+				order[j] = temp;
+			}
+			final int[][] trainRows = new int[numFolds][];
+			final int[][] testRows = new int[numFolds][];
+			for (int fold = 0; fold < numFolds; fold++) {
+				int start = (int) ((long) numData * fold / numFolds);
+				int end = (int) ((long) numData * (fold + 1) / numFolds);
+				testRows[fold] = Arrays.copyOfRange(order, start, end);
+				trainRows[fold] = new int[numData - (end - start)];
+				System.arraycopy(order, 0, trainRows[fold], 0, start);
+				System.arraycopy(order, end, trainRows[fold], start, numData
+						- end);
+			}
+			List<CrossValidationResult> results = new ArrayList<CrossValidationResult>();
+			List<List<Future<double[]>>> jobs = new ArrayList<List<Future<double[]>>>();
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+					numThreads));
+			for (final double sigma : sigmas) {
+				for (final int iterationCount : iterationCounts) {
+					results.add(new CrossValidationResult(sigma, iterationCount));
+					List<Future<double[]>> folds = new ArrayList<Future<double[]>>();
+					for (int fold = 0; fold < numFolds; fold++) {
+						final int foldIndex = fold;
+						folds.add(executor.submit(new Callable<double[]>() {
+							public double[] call() {
+								return trainAndTest(matrix, encoding,
+										trainRows[foldIndex], testRows[foldIndex],
+										sigma, iterationCount);
+							}
+						}));
+					}
+					jobs.add(folds);
+				}
+			}
+			try {
+				for (int config = 0; config < results.size(); config++) {
+					CrossValidationResult result = results.get(config);
+					double numCorrect = 0.0;
+					for (Future<double[]> fold : jobs.get(config)) {
+						double[] foldResult = fold.get();
+						numCorrect += foldResult[0];
+						result.trainingSeconds += foldResult[1];
+					}
+					result.accuracy = numCorrect / numData;
+					System.out.println(result);
 				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+			stopwatch.stop();
+			System.out.printf("Cross-validation took %.3f sec\n", stopwatch
+					.getLastElapsedTime());
+			return results;
+		}
+
+		/**
+		 * Trains on the train rows and returns the number of test rows
+		 * labeled correctly and the training time in seconds.
+		 */
+		private double[] trainAndTest(SparseDataMatrix matrix,
+				Encoding<F, L> encoding, int[] trainRows, int[] testRows,
+				double sigma, int iterationCount) {
+			Factory<I, F, L> factory = new Factory<I, F, L>(sigma,
+					iterationCount, featureExtractor);
+			factory.l1Weight = l1Weight;
+			factory.printProgress = false;
+			Stopwatch stopwatch = new Stopwatch();
+			MaximumEntropyClassifier<I, F, L> classifier = factory
+					.trainClassifier(matrix.selectRows(trainRows), encoding);
+			stopwatch.stop();
+			int numCorrect = 0;
+			for (int row : testRows) {
+				if (classifier.getLabelIndex(matrix, row) == matrix.getLabel(row))
+					numCorrect++;
+			}
+			return new double[] { numCorrect, stopwatch.getLastElapsedTime() };
+		}
+
+		/**
+		 * Times numPasses evaluations of the objective and its gradient on
+		 * the given data (at random weights), with the feature-by-feature
+		 * axpy kernels used in training and, for comparison, with loops that
+		 * go label by label and stride across each feature's weights.
+		 * Prints data per second for each.
+		 */
+		public void benchmarkObjective(List<LabeledInstance<I, L>> data,
+				int numPasses) {
+			Encoder encoder = new Encoder();
+			SparseDataMatrix matrix = encodeData(data, encoder);
+			Encoding<F, L> encoding = encoder.getEncoding();
+			IndexLinearizer indexLinearizer = buildIndexLinearizer(encoding);
+			ObjectiveFunction<F, L> objective = new ObjectiveFunction<F, L>(
+					encoding, matrix, indexLinearizer, sigma);
+			Random random = new Random(0);
+			double[] x = new double[indexLinearizer.getNumLinearIndexes()];
+			for (int i = 0; i < x.length; i++) {
+				x[i] = 0.1 * random.nextGaussian();
+			}
+			double[] derivatives = new double[x.length];
+			int numData = matrix.getNumRows();
+			double checksum = 0.0;
+			// warm up both versions before timing
+			for (int pass = 0; pass < 3; pass++) {
+				checksum += calculateByLabel(matrix, indexLinearizer, x,
+						derivatives);
+				checksum += objective.calculate(x, 0, numData, derivatives);
+			}
+			Stopwatch stopwatch = new Stopwatch();
+			for (int pass = 0; pass < numPasses; pass++) {
+				checksum += calculateByLabel(matrix, indexLinearizer, x,
+						derivatives);
+			}
+			stopwatch.stop();
+			double byLabel = stopwatch.getLastElapsedTime();
+			stopwatch = new Stopwatch();
+			for (int pass = 0; pass < numPasses; pass++) {
+				checksum += objective.calculate(x, 0, numData, derivatives);
 			}
-			return new Encoding<F, L>(featureIndexer, labelIndexer);
+			stopwatch.stop();
+			double byFeature = stopwatch.getLastElapsedTime();
+			System.out.printf(
+					"Objective on %d data, %d features, %d labels (%.4g)\n",
+					numData, encoding.getNumFeatures(), encoding.getNumLabels(),
+					checksum);
+			System.out.printf("  label by label:     %.0f data/sec\n",
+					numPasses * numData / byLabel);
+			System.out.printf("  feature axpy:       %.0f data/sec\n",
+					numPasses * numData / byFeature);
 		}
 
-		private EncodedDatum[] encodeData(List<LabeledInstance<I, L>> data,
-				Encoding<F, L> encoding) {
-			EncodedDatum[] encodedData = new EncodedDatum[data.size()];
-			for (int i = 0; i < data.size(); i++) {
-				LabeledInstance<I, L> labeledInstance = data.get(i);
-				L label = labeledInstance.getLabel();
-				Counter<F> features = featureExtractor
-						.extractFeatures(labeledInstance.getInput());
-				LabeledFeatureVector<F, L> labeledFeatureVector = new BasicLabeledFeatureVector<F, L>(
-						label, features);
-				encodedData[i] = EncodedDatum.encodeLabeledDatum(
-						labeledFeatureVector, encoding);
+		/**
+		 * The objective and gradient loops as they were before the axpy
+		 * kernels, for benchmarkObjective().
+		 */
+		private static double calculateByLabel(SparseDataMatrix data,
+				IndexLinearizer indexLinearizer, double[] x,
+				double[] derivatives) {
+			double objective = 0.0;
+			double[] logProbabilities = new double[indexLinearizer.numLabels];
+			for (int i = 0; i < data.getNumRows(); i++) {
+				int first = data.getStart(i);
+				int last = data.getEnd(i);
+				for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
+					double activation = 0.0;
+					for (int k = first; k < last; k++) {
+						activation += x[indexLinearizer.getLinearIndex(data
+								.getColumn(k), labelIndex)]
+								* data.getValue(k);
+					}
+					logProbabilities[labelIndex] = activation;
+				}
+				normalizeLogProbabilities(logProbabilities);
+				objective -= logProbabilities[data.getLabel(i)];
+				for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
+					double weight = SloppyMath.fastExp(logProbabilities[labelIndex]);
+					if (labelIndex == data.getLabel(i))
+						weight -= 1.0;
+					for (int k = first; k < last; k++) {
+						derivatives[indexLinearizer.getLinearIndex(data
+								.getColumn(k), labelIndex)] += weight
+								* data.getValue(k);
+					}
+				}
 			}
-			return encodedData;
+			return objective;
 		}
 
 		/**
@@ -113,90 +528,263 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			this.iterations = iterations;
 			this.featureExtractor = featureExtractor;
 		}
+
+		/**
+		 * Number of threads used to run the feature extractor over the
+		 * training data when encoding it, and to compute the
+		 * objective during training. The feature extractor must be
+		 * thread-safe if this is more than 1 (the default).
+		 */
+		public void setNumThreads(int numThreads) {
+			this.numThreads = numThreads;
+		}
+
+		/**
+		 * Adds an L1 penalty of l1Weight times the sum of the absolute values
+		 * of the weights, on top of the Gaussian (sigma) penalty, and trains
+		 * with OWL-QN. Most weights are then exactly zero, and the classifier
+		 * stores only the others. Ignored by stochastic minimizers.
+		 */
+		public void setL1Weight(double l1Weight) {
+			this.l1Weight = l1Weight;
+		}
+
+		/**
+		 * Whether the minimizer prints its progress (the default).
+		 */
+		public void setPrintProgress(boolean printProgress) {
+			this.printProgress = printProgress;
+		}
+
+		/**
+		 * Trains with the given stochastic minimizer (SGD, AdaGrad, Adam)
+		 * instead of L-BFGS; the number of passes and learning rate are the
+		 * minimizer's. Null (the default) goes back to L-BFGS.
+		 */
+		public void setStochasticMinimizer(
+				StochasticMinimizer stochasticMinimizer) {
+			this.stochasticMinimizer = stochasticMinimizer;
+		}
+
+		/**
+		 * Starts training from the weights of a previously trained
+		 * classifier instead of from zero. Weights are matched by feature
+		 * and label, so the new training data may have features (or labels)
+		 * the previous classifier never saw; their weights start at zero.
+		 */
+		public void setWarmStart(MaximumEntropyClassifier<I, F, L> warmStart) {
+			this.warmStart = warmStart;
+		}
+
+		/**
+		 * Saves the L-BFGS (or OWL-QN) state to the given file every interval
+		 * iterations. If the file already exists when training starts,
+		 * training resumes from it instead of starting over. The checkpoint
+		 * is stored by feature and label index, so it only fits training
+		 * data whose encoding extends the checkpointed one: the same labels,
+		 * and the same features in the same order, possibly followed by new
+		 * ones (as when more data is appended to the training set, without
+		 * parallel encoding). The checkpoint stores a fingerprint of the
+		 * encoding, and a checkpoint that does not fit is refused rather than
+		 * resumed; with more than one thread the features are numbered in a
+		 * different order each run, so only a single-threaded run can be
+		 * resumed reliably. Use setWarmStart for anything else.
+		 */
+		public void setCheckpointFile(File checkpointFile, int interval) {
+			this.checkpointFile = checkpointFile;
+			this.checkpointInterval = interval;
+		}
+
+		/**
+		 * Hashes features into 2^numBits slots (see HashedEncoding) instead
+		 * of indexing them, so the training data is run through the feature
+		 * extractor once rather than twice and the model's size does not
+		 * depend on the number of distinct features. Features that share a
+		 * slot share its weights. Zero (the default) turns hashing off.
+		 * There must be fewer than 2^31 weights, i.e. 2^numBits times the
+		 * number of labels; training throws otherwise.
+		 */
+		public void setFeatureHashing(int numBits) {
+			this.featureHashBits = numBits;
+		}
+	}
+
+	/**
+	 * The result of cross-validating one configuration (see
+	 * Factory.crossValidate()).
+	 */
+	public static class CrossValidationResult {
+		double sigma;
+		int iterations;
+		double accuracy;
+		double trainingSeconds;
+
+		public double getSigma() {
+			return sigma;
+		}
+
+		public int getIterations() {
+			return iterations;
+		}
+
+		/**
+		 * The fraction of data labeled correctly when held out.
+		 */
+		public double getAccuracy() {
+			return accuracy;
+		}
+
+		/**
+		 * Training time summed over the folds.
+		 */
+		public double getTrainingSeconds() {
+			return trainingSeconds;
+		}
+
+		public String toString() {
+			return String.format(
+					"sigma %g, %d iterations: accuracy %.4f, %.3f sec training",
+					sigma, iterations, accuracy, trainingSeconds);
+		}
+
+		public CrossValidationResult(double sigma, int iterations) {
+			this.sigma = sigma;
+			this.iterations = iterations;
+		}
 	}
 
 	/**
 	 * This is the MaximumEntropy objective function: the (negative) log
 	 * conditional likelihood of the training data, possibly with a penalty for
 	 * large weights. Note that this objective get MINIMIZED so it's the
-	 * negative of the objective we normally think of.
+	 * negative of the objective we normally think of. The data terms are
+	 * computed in parallel shards (see DataParallelObjective), or one datum at
+	 * a time for stochastic minimizers.
 	 */
-	public static class ObjectiveFunction<F, L> implements
-			DifferentiableFunction {
+	public static class ObjectiveFunction<F, L> extends DataParallelObjective
+			implements StochasticDifferentiableFunction {
 		IndexLinearizer indexLinearizer;
 		Encoding<F, L> encoding;
-		EncodedDatum[] data;
+		SparseDataMatrix data;
+		/**
+		 * Each thread's array of one value per label, for calculate() of a
+		 * single datum.
+		 */
+		ThreadLocal<double[]> labelBuffers = new ThreadLocal<double[]>();
 
 		double sigma;
 
-		double lastValue;
-		double[] lastDerivative;
-		double[] lastX;
-
 		public int dimension() {
 			return indexLinearizer.getNumLinearIndexes();
 		}
 
-		public double valueAt(double[] x) {
-			ensureCache(x);
-			return lastValue;
+		public int getNumData() {
+			return data.getNumRows();
 		}
 
-		public double[] derivativeAt(double[] x) {
-			ensureCache(x);
-			return lastDerivative;
+		/**
+		 * The most important part of the classifier learning process! This
+		 * method determines, for the given weight vector x, what the (negative)
+		 * log conditional likelihood of the data from start to end - 1 is, as
+		 * well as the derivatives of that likelihood wrt each weight parameter
+		 * (which are added into derivatives).
+		 */
+		protected double calculate(double[] x, int start, int end,
+				double[] derivatives) {
+			double objective = 0.0;
+			int numLabels = encoding.getNumLabels();
+			double[] logProbabilities = new double[numLabels];
+			double[] labelWeights = new double[numLabels];
+			for (int i = start; i < end; i++) {
+				int first = data.getStart(i);
+				int last = data.getEnd(i);
+				int labelOfDatum = data.getLabel(i);
+				getLogProbabilities(data, first, last, x, indexLinearizer,
+						logProbabilities);
+				objective -= logProbabilities[labelOfDatum];
+				// expected minus observed feature counts
+				for (int labelIndex = 0; labelIndex < numLabels; labelIndex++) {
+					labelWeights[labelIndex] = SloppyMath
+							.fastExp(logProbabilities[labelIndex]);
+				}
+				labelWeights[labelOfDatum] -= 1.0;
+				for (int k = first; k < last; k++) {
+					DoubleArrays.axpy(data.getValue(k), labelWeights, 0,
+							derivatives, indexLinearizer.getFeatureOffset(data
+									.getColumn(k)), numLabels);
+				}
+			}
+			return objective;
 		}
 
-		private void ensureCache(double[] x) {
-			if (requiresUpdate(lastX, x)) {
-				Pair<Double, double[]> currentValueAndDerivative = calculate(x);
-				lastValue = currentValueAndDerivative.getFirst();
-				lastDerivative = currentValueAndDerivative.getSecond();
-				lastX = x;
+		/**
+		 * The negative log conditional likelihood of one datum, with its
+		 * derivatives for every label and each of its features.
+		 */
+		public double calculate(double[] x, int datum, SparseGradient gradient) {
+			int first = data.getStart(datum);
+			int last = data.getEnd(datum);
+			int labelOfDatum = data.getLabel(datum);
+			double[] logProbabilities = getLabelBuffer();
+			getLogProbabilities(data, first, last, x, indexLinearizer,
+					logProbabilities);
+			double objective = -logProbabilities[labelOfDatum];
+			// logProbabilities now becomes expected minus observed counts
+			for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
+				double weight = SloppyMath.fastExp(logProbabilities[labelIndex]);
+				if (labelIndex == labelOfDatum)
+					weight -= 1.0;
+				logProbabilities[labelIndex] = weight;
+			}
+			for (int k = first; k < last; k++) {
+				int offset = indexLinearizer.getFeatureOffset(data.getColumn(k));
+				double count = data.getValue(k);
+				for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
+					gradient.add(offset + labelIndex, logProbabilities[labelIndex]
+							* count);
+				}
 			}
+			return objective;
 		}
 
-		private boolean requiresUpdate(double[] lastX, double[] x) {
-			if (lastX == null)
-				return true;
-			for (int i = 0; i < x.length; i++) {
-				if (lastX[i] != x[i])
-					return true;
+		private double[] getLabelBuffer() {
+			double[] buffer = labelBuffers.get();
+			if (buffer == null) {
+				buffer = new double[encoding.getNumLabels()];
+				labelBuffers.set(buffer);
 			}
-			return false;
+			return buffer;
 		}
 
 		/**
-		 * The most important part of the classifier learning process! This
-		 * method determines, for the given weight vector x, what the (negative)
-		 * log conditional likelihood of the data is, as well as the derivatives
-		 * of that likelihood wrt each weight parameter.
+		 * Every label's weight for each of the datum's features.
 		 */
-		private Pair<Double, double[]> calculate(double[] x) {
-			double objective = 0.0;
-			double[] derivatives = DoubleArrays.constantArray(0.0, dimension());
-			// TODO: compute the objective and its derivatives
-			// TODO
-
-			// logProb
-
-			// dummy code
-			objective = 42.0;
-			for (int i = 0; i < derivatives.length; i++) {
-				derivatives[i] = 0.0;
+		public void getIndexes(int datum, SparseGradient indexes) {
+			int numLabels = encoding.getNumLabels();
+			for (int k = data.getStart(datum); k < data.getEnd(datum); k++) {
+				int offset = indexLinearizer.getFeatureOffset(data.getColumn(k));
+				for (int labelIndex = 0; labelIndex < numLabels; labelIndex++) {
+					indexes.add(offset + labelIndex, 0.0);
+				}
 			}
-			// end dummy code
+		}
 
-			// TODO: incorporate penalty terms into the objective and
-			// derivatives
-			// penalties
+		public double getL2Weight() {
+			return (sigma == 0.0 ? 0.0 : 1.0 / (sigma * sigma));
+		}
 
-			// TODO
-			// TODO
-			return new Pair<Double, double[]>(objective, derivatives);
+		/**
+		 * The Gaussian prior: sum of x^2 / (2 sigma^2), unless sigma is zero.
+		 */
+		protected double calculatePenalty(double[] x, double[] derivatives) {
+			if (sigma == 0.0)
+				return 0.0;
+			double variance = sigma * sigma;
+			DoubleArrays.axpy(1.0 / variance, x, derivatives);
+			return DoubleArrays.innerProduct(x, x) / (2.0 * variance);
 		}
 
-		public ObjectiveFunction(Encoding<F, L> encoding, EncodedDatum[] data,
+		public ObjectiveFunction(Encoding<F, L> encoding, SparseDataMatrix data,
 				IndexLinearizer indexLinearizer, double sigma) {
 			this.indexLinearizer = indexLinearizer;
 			this.encoding = encoding;
@@ -217,24 +805,23 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		public static <F, L> EncodedDatum encodeDatum(
 				FeatureVector<F> featureVector, Encoding<F, L> encoding) {
 			Counter<F> features = featureVector.getFeatures();
-			Counter<F> knownFeatures = new Counter<F>();
-			for (F feature : features.keySet()) {
-				if (encoding.getFeatureIndex(feature) < 0)
-					continue;
-				knownFeatures.incrementCount(feature,
-						features.getCount(feature));
-			}
-			int numActiveFeatures = knownFeatures.keySet().size();
-			int[] featureIndexes = new int[numActiveFeatures];
-			double[] featureCounts = new double[knownFeatures.keySet().size()];
+			int[] featureIndexes = new int[features.size()];
+			double[] featureCounts = new double[features.size()];
 			int i = 0;
-			for (F feature : knownFeatures.keySet()) {
+			for (Map.Entry<F, Double> entry : features.getEntrySet()) {
+				F feature = entry.getKey();
 				int index = encoding.getFeatureIndex(feature);
-				double count = knownFeatures.getCount(feature);
+				if (index < 0)
+					continue;
 				featureIndexes[i] = index;
-				featureCounts[i] = count;
+				featureCounts[i] = encoding.getFeatureSign(feature)
+						* entry.getValue();
 				i++;
 			}
+			if (i < featureIndexes.length) {
+				featureIndexes = Arrays.copyOf(featureIndexes, i);
+				featureCounts = Arrays.copyOf(featureCounts, i);
+			}
 			EncodedDatum encodedDatum = new EncodedDatum(-1, featureIndexes,
 					featureCounts);
 			return encodedDatum;
@@ -301,6 +888,14 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			return featureIndexer.get(featureIndex);
 		}
 
+		/**
+		 * The factor the feature's count is multiplied by when encoded: 1.0,
+		 * except in a HashedEncoding.
+		 */
+		public double getFeatureSign(F feature) {
+			return 1.0;
+		}
+
 		public int getNumLabels() {
 			return labelIndexer.size();
 		}
@@ -313,12 +908,104 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			return labelIndexer.get(labelIndex);
 		}
 
+		/**
+		 * A hash of the labels and the first numFeatures features, in index
+		 * order, for telling whether a checkpoint's weights fit this
+		 * encoding. Relies on hashCode()s that are the same from run to run,
+		 * as those of strings are.
+		 */
+		long getFingerprint(int numFeatures) {
+			long h = mixFingerprint(getNumLabels(), numFeatures);
+			for (int labelIndex = 0; labelIndex < getNumLabels(); labelIndex++) {
+				h = mixFingerprint(h, getLabel(labelIndex).hashCode());
+			}
+			for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+				h = mixFingerprint(h, getFeature(featureIndex).hashCode());
+			}
+			return h;
+		}
+
+		static long mixFingerprint(long h, int x) {
+			return (h + x + 1) * 0x9e3779b97f4a7c15L;
+		}
+
 		public Encoding(Indexer<F> featureIndexer, Indexer<L> labelIndexer) {
 			this.featureIndexer = featureIndexer;
 			this.labelIndexer = labelIndexer;
 		}
 	}
 
+	/**
+	 * An Encoding that maps features to 2^numBits slots by hashing instead of
+	 * through an Indexer (the hashing trick): the low bits of a mixed
+	 * hashCode() pick the slot, and the top bit a sign the feature's count is
+	 * multiplied by, so that the features colliding in a slot tend to cancel
+	 * out rather than add up. Every feature has a slot, including ones never
+	 * seen in training, and the slots cannot be mapped back to features.
+	 * Labels are still indexed.
+	 */
+	public static class HashedEncoding<F, L> extends Encoding<F, L> {
+		int numBits;
+		int mask;
+
+		public int getNumFeatures() {
+			return 1 << numBits;
+		}
+
+		public int getFeatureIndex(F feature) {
+			return hash(feature) & mask;
+		}
+
+		public double getFeatureSign(F feature) {
+			return (hash(feature) < 0 ? -1.0 : 1.0);
+		}
+
+		public F getFeature(int featureIndex) {
+			throw new UnsupportedOperationException(
+					"Hashed feature slots cannot be mapped back to features");
+		}
+
+		public int getNumBits() {
+			return numBits;
+		}
+
+		/**
+		 * A hash of the labels and the number of slots; the slots' features
+		 * are unknown.
+		 */
+		long getFingerprint(int numFeatures) {
+			long h = mixFingerprint(getNumLabels(), -numBits);
+			for (int labelIndex = 0; labelIndex < getNumLabels(); labelIndex++) {
+				h = mixFingerprint(h, getLabel(labelIndex).hashCode());
+			}
+			return mixFingerprint(h, numFeatures);
+		}
+
+		/**
+		 * The hashCode() with its bits mixed (the MurmurHash3 finalizer), so
+		 * that the low and top bits depend on all of them.
+		 */
+		static int hash(Object feature) {
+			int h = feature.hashCode();
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+			return h;
+		}
+
+		public HashedEncoding(int numBits, Indexer<L> labelIndexer) {
+			super(null, labelIndexer);
+			if (numBits < 1 || numBits > 30)
+				throw new IllegalArgumentException(
+						"Number of hash bits must be between 1 and 30: "
+								+ numBits);
+			this.numBits = numBits;
+			this.mask = (1 << numBits) - 1;
+		}
+	}
+
 	/**
 	 * The IndexLinearizer maintains the linearization of the two-dimensional
 	 * features-by-labels pair space. This is because, while we might think
@@ -339,6 +1026,16 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			return labelIndex + featureIndex * numLabels;
 		}
 
+		/**
+		 * The linear index of the feature's weight for label 0. A feature's
+		 * weights for all labels are contiguous, in label order, so that
+		 * scoring a datum (or adding its gradient) takes one axpy over
+		 * numLabels entries per active feature.
+		 */
+		public int getFeatureOffset(int featureIndex) {
+			return featureIndex * numLabels;
+		}
+
 		public int getFeatureIndex(int linearIndex) {
 			return linearIndex / numLabels;
 		}
@@ -348,59 +1045,248 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		}
 
 		public IndexLinearizer(int numFeatures, int numLabels) {
+			if ((long) numFeatures * numLabels > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(numFeatures + " features and "
+						+ numLabels + " labels are too many weights for one array");
 			this.numFeatures = numFeatures;
 			this.numLabels = numLabels;
 		}
 	}
 
+	/**
+	 * The weights, either dense (indexed by the IndexLinearizer) or, when
+	 * most are zero, only the non-zero ones by feature: feature f's are for
+	 * labels sparseLabels[k], k from featureStarts[f] to featureStarts[f + 1]
+	 * - 1, with weights sparseWeights[k]. Exactly one of weights and
+	 * sparseWeights is non-null.
+	 */
 	private double[] weights;
+	private int[] featureStarts;
+	private int[] sparseLabels;
+	private double[] sparseWeights;
 	private Encoding<F, L> encoding;
 	private IndexLinearizer indexLinearizer;
 	private FeatureExtractor<I, F> featureExtractor;
 
+	private transient ThreadLocal<double[]> activationBuffers;
+
 	/**
-	 * Calculate the log probabilities of each class, for the given datum
-	 * (feature bundle). Note that the weighted votes (refered to as
-	 * activations) are *almost* log probabilities, but need to be normalized.
+	 * Calculate the log probabilities of each class, for the training datum
+	 * whose entries in the data matrix are at positions start to end - 1,
+	 * into logProbabilities (one entry per label). Note that the weighted
+	 * votes (refered to as activations) are *almost* log probabilities, but
+	 * need to be normalized. Each feature adds its block of per-label
+	 * weights to the activations in one axpy.
 	 */
-	private static <F, L> double[] getLogProbabilities(EncodedDatum datum,
-			double[] weights, Encoding<F, L> encoding,
-			IndexLinearizer indexLinearizer) {
-		// TODO: apply the classifier to this feature vector
-		// TODO
-		// TODO
-		// TODO
-
-		// dummy code
-		double[] logProbabilities = DoubleArrays.constantArray(
-				Double.NEGATIVE_INFINITY, encoding.getNumLabels());
-		logProbabilities[0] = 0.0;
-		return logProbabilities;
-		// end dummy code
-
-		// TODO
+	static void getLogProbabilities(SparseDataMatrix data, int start, int end,
+			double[] weights, IndexLinearizer indexLinearizer,
+			double[] logProbabilities) {
+		Arrays.fill(logProbabilities, 0.0);
+		for (int k = start; k < end; k++) {
+			DoubleArrays.axpy(data.getValue(k), weights, indexLinearizer
+					.getFeatureOffset(data.getColumn(k)), logProbabilities, 0,
+					logProbabilities.length);
+		}
+		normalizeLogProbabilities(logProbabilities);
 	}
 
-	public Counter<L> getProbabilities(I input) {
-		FeatureVector<F> featureVector = new BasicFeatureVector<F>(
-				featureExtractor.extractFeatures(input));
-		return getProbabilities(featureVector);
+	/**
+	 * Turns activations into log probabilities by subtracting their log sum.
+	 */
+	static void normalizeLogProbabilities(double[] logProbabilities) {
+		double logNormalizer = SloppyMath.logAdd(logProbabilities);
+		for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
+			logProbabilities[labelIndex] -= logNormalizer;
+		}
+	}
+
+	/**
+	 * Fills in the activation of each label for the given features, going
+	 * feature by feature: a feature's weights for all labels are contiguous
+	 * in the dense layout, and are the only ones stored in the sparse one.
+	 * Features unknown to the model are skipped.
+	 */
+	private void computeActivations(Counter<F> features, double[] activations) {
+		Arrays.fill(activations, 0.0);
+		for (Map.Entry<F, Double> entry : features.getEntrySet()) {
+			F feature = entry.getKey();
+			int featureIndex = encoding.getFeatureIndex(feature);
+			if (featureIndex < 0)
+				continue;
+			addActivations(featureIndex, encoding.getFeatureSign(feature)
+					* entry.getValue(), activations);
+		}
+	}
+
+	/**
+	 * Adds count times the feature's weights to the activations.
+	 */
+	private void addActivations(int featureIndex, double count,
+			double[] activations) {
+		if (weights != null) {
+			DoubleArrays.axpy(count, weights, indexLinearizer
+					.getFeatureOffset(featureIndex), activations, 0,
+					activations.length);
+		} else {
+			for (int k = featureStarts[featureIndex]; k < featureStarts[featureIndex + 1]; k++) {
+				activations[sparseLabels[k]] += sparseWeights[k] * count;
+			}
+		}
+	}
+
+	/**
+	 * The index of the most likely label for a row of a data matrix encoded
+	 * with this classifier's encoding.
+	 */
+	int getLabelIndex(SparseDataMatrix data, int row) {
+		double[] activations = getActivationBuffer();
+		Arrays.fill(activations, 0.0);
+		for (int k = data.getStart(row); k < data.getEnd(row); k++) {
+			addActivations(data.getColumn(k), data.getValue(k), activations);
+		}
+		return argMax(activations);
+	}
+
+	/**
+	 * This thread's array of one activation per label.
+	 */
+	private double[] getActivationBuffer() {
+		ThreadLocal<double[]> buffers = activationBuffers;
+		if (buffers == null) {
+			buffers = new ThreadLocal<double[]>();
+			activationBuffers = buffers;
+		}
+		double[] activations = buffers.get();
+		if (activations == null) {
+			activations = new double[encoding.getNumLabels()];
+			buffers.set(activations);
+		}
+		return activations;
+	}
+
+	private static int argMax(double[] x) {
+		int best = 0;
+		for (int i = 1; i < x.length; i++) {
+			if (x[i] > x[best])
+				best = i;
+		}
+		return best;
+	}
+
+	/**
+	 * Classifies each of the inputs, without building a Counter for the
+	 * result: outLabels[i] is set to the index (in getEncoding()) of the most
+	 * likely label for inputs.get(i) and, if outScores is not null, the array
+	 * outScores[i] (which must have one entry per label) to the log
+	 * probability of each label. Apart from what the feature extractor
+	 * allocates, nothing is allocated per input. Safe to call from several
+	 * threads at once if the feature extractor is.
+	 */
+	public void classify(List<I> inputs, int[] outLabels, double[][] outScores) {
+		double[] activations = getActivationBuffer();
+		for (int i = 0; i < inputs.size(); i++) {
+			computeActivations(featureExtractor.extractFeatures(inputs.get(i)),
+					activations);
+			outLabels[i] = argMax(activations);
+			if (outScores != null) {
+				System.arraycopy(activations, 0, outScores[i], 0,
+						activations.length);
+				normalizeLogProbabilities(outScores[i]);
+			}
+		}
 	}
 
-	private Counter<L> getProbabilities(FeatureVector<F> featureVector) {
-		EncodedDatum encodedDatum = EncodedDatum.encodeDatum(featureVector,
-				encoding);
-		double[] logProbabilities = getLogProbabilities(encodedDatum, weights,
-				encoding, indexLinearizer);
+	public Counter<L> getProbabilities(I input) {
+		double[] logProbabilities = getActivationBuffer();
+		computeActivations(featureExtractor.extractFeatures(input),
+				logProbabilities);
+		normalizeLogProbabilities(logProbabilities);
 		return logProbabiltyArrayToProbabiltyCounter(logProbabilities);
 	}
 
+	public Encoding<F, L> getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * The weight of the given feature for the given label; zero if either is
+	 * unknown to the model. With a HashedEncoding, this is the weight of the
+	 * feature's slot times the feature's sign.
+	 */
+	public double getWeight(F feature, L label) {
+		int featureIndex = encoding.getFeatureIndex(feature);
+		int labelIndex = encoding.getLabelIndex(label);
+		if (featureIndex < 0 || labelIndex < 0)
+			return 0.0;
+		return encoding.getFeatureSign(feature)
+				* getWeight(featureIndex, labelIndex);
+	}
+
+	private double getWeight(int featureIndex, int labelIndex) {
+		if (weights != null)
+			return weights[indexLinearizer.getLinearIndex(featureIndex,
+					labelIndex)];
+		for (int k = featureStarts[featureIndex]; k < featureStarts[featureIndex + 1]; k++) {
+			if (sparseLabels[k] == labelIndex)
+				return sparseWeights[k];
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Number of non-zero weights in the model.
+	 */
+	public int getNumNonZeroWeights() {
+		if (weights == null)
+			return sparseWeights.length;
+		int numNonZero = 0;
+		for (double weight : weights) {
+			if (weight != 0.0)
+				numNonZero++;
+		}
+		return numNonZero;
+	}
+
+	/**
+	 * Keeps only the non-zero weights if fewer than half are non-zero, as
+	 * after L1-regularized training.
+	 */
+	private void storeWeights(double[] weights) {
+		int numNonZero = 0;
+		for (double weight : weights) {
+			if (weight != 0.0)
+				numNonZero++;
+		}
+		if (2 * numNonZero >= weights.length) {
+			this.weights = weights;
+			return;
+		}
+		int numFeatures = encoding.getNumFeatures();
+		featureStarts = new int[numFeatures + 1];
+		sparseLabels = new int[numNonZero];
+		sparseWeights = new double[numNonZero];
+		int k = 0;
+		for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+			featureStarts[featureIndex] = k;
+			for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); labelIndex++) {
+				double weight = weights[indexLinearizer.getLinearIndex(
+						featureIndex, labelIndex)];
+				if (weight == 0.0)
+					continue;
+				sparseLabels[k] = labelIndex;
+				sparseWeights[k] = weight;
+				k++;
+			}
+		}
+		featureStarts[numFeatures] = k;
+	}
+
 	private Counter<L> logProbabiltyArrayToProbabiltyCounter(
 			double[] logProbabilities) {
 		Counter<L> probabiltyCounter = new Counter<L>();
 		for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
 			double logProbability = logProbabilities[labelIndex];
-			double probability = Math.exp(logProbability);
+			double probability = SloppyMath.fastExp(logProbability);
 			L label = encoding.getLabel(labelIndex);
 			probabiltyCounter.setCount(label, probability);
 		}
@@ -408,16 +1294,18 @@ public class MaximumEntropyClassifier<I, F, L> implements
 	}
 
 	public L getLabel(I input) {
-		return getProbabilities(input).argMax();
+		double[] activations = getActivationBuffer();
+		computeActivations(featureExtractor.extractFeatures(input), activations);
+		return encoding.getLabel(argMax(activations));
 	}
 
 	public MaximumEntropyClassifier(double[] weights, Encoding<F, L> encoding,
 			IndexLinearizer indexLinearizer,
 			FeatureExtractor<I, F> featureExtractor) {
-		this.weights = weights;
 		this.encoding = encoding;
 		this.indexLinearizer = indexLinearizer;
 		this.featureExtractor = featureExtractor;
+		storeWeights(weights);
 	}
 
 	public static void main(String[] args) {
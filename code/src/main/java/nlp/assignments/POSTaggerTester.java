@@ -93,7 +93,7 @@ public class POSTaggerTester {
 	static class State {
 
 		private static transient Interner<State> stateInterner = new Interner<State>(
-				new Interner.CanonicalFactory<State>() {
+				Interner.Retention.WEAK, new Interner.CanonicalFactory<State>() {
 					public State build(State state) {
 						return new State(state);
 					}
@@ -313,29 +313,26 @@ public class POSTaggerTester {
 					.validate(extractLabeledLocalTrigramContexts(taggedSentences));
 		}
 
-		private List<LabeledLocalTrigramContext> extractLabeledLocalTrigramContexts(
-				List<TaggedSentence> taggedSentences) {
-			List<LabeledLocalTrigramContext> localTrigramContexts = new ArrayList<LabeledLocalTrigramContext>();
-			for (TaggedSentence taggedSentence : taggedSentences) {
-				localTrigramContexts
-						.addAll(extractLabeledLocalTrigramContexts(taggedSentence));
-			}
-			return localTrigramContexts;
+		/**
+		 * Returns the labeled contexts of all positions of all sentences, one
+		 * at a time and without building a list of them. Note that each
+		 * iterator over the result hands back the same context object each
+		 * time, updated in place.
+		 */
+		private Iterable<LabeledLocalTrigramContext> extractLabeledLocalTrigramContexts(
+				final List<TaggedSentence> taggedSentences) {
+			return new Iterable<LabeledLocalTrigramContext>() {
+				public Iterator<LabeledLocalTrigramContext> iterator() {
+					return new LabeledLocalTrigramContextIterator(
+							taggedSentences.iterator());
+				}
+			};
 		}
 
-		private List<LabeledLocalTrigramContext> extractLabeledLocalTrigramContexts(
+		private Iterable<LabeledLocalTrigramContext> extractLabeledLocalTrigramContexts(
 				TaggedSentence taggedSentence) {
-			List<LabeledLocalTrigramContext> labeledLocalTrigramContexts = new ArrayList<LabeledLocalTrigramContext>();
-			List<String> words = new BoundedList<String>(
-					taggedSentence.getWords(), START_WORD, STOP_WORD);
-			List<String> tags = new BoundedList<String>(
-					taggedSentence.getTags(), START_TAG, STOP_TAG);
-			for (int position = 0; position <= taggedSentence.size() + 1; position++) {
-				labeledLocalTrigramContexts.add(new LabeledLocalTrigramContext(
-						words, position, tags.get(position - 2), tags
-								.get(position - 1), tags.get(position)));
-			}
-			return labeledLocalTrigramContexts;
+			return extractLabeledLocalTrigramContexts(Collections
+					.singletonList(taggedSentence));
 		}
 
 		/**
@@ -390,7 +387,7 @@ public class POSTaggerTester {
 		 */
 		public double scoreTagging(TaggedSentence taggedSentence) {
 			double logScore = 0.0;
-			List<LabeledLocalTrigramContext> labeledLocalTrigramContexts = extractLabeledLocalTrigramContexts(taggedSentence);
+			Iterable<LabeledLocalTrigramContext> labeledLocalTrigramContexts = extractLabeledLocalTrigramContexts(taggedSentence);
 			for (LabeledLocalTrigramContext labeledLocalTrigramContext : labeledLocalTrigramContexts) {
 				Counter<String> logScoreCounter = localTrigramScorer
 						.getLogScoreCounter(labeledLocalTrigramContext);
@@ -415,6 +412,60 @@ public class POSTaggerTester {
 		}
 	}
 
+	/**
+	 * Walks over positions 0 through size() + 1 of each sentence in turn,
+	 * yielding the labeled context at each. To avoid allocating per position,
+	 * the iterator reuses one BoundedList per sentence field and yields the
+	 * same LabeledLocalTrigramContext every time, updated in place: anything a
+	 * caller wants to keep from a context must be read out before calling
+	 * next() again.
+	 */
+	static class LabeledLocalTrigramContextIterator implements
+			Iterator<LabeledLocalTrigramContext> {
+		Iterator<TaggedSentence> sentenceIterator;
+		BoundedList<String> words = new BoundedList<String>(
+				Collections.<String> emptyList(), START_WORD, STOP_WORD);
+		BoundedList<String> tags = new BoundedList<String>(
+				Collections.<String> emptyList(), START_TAG, STOP_TAG);
+		LabeledLocalTrigramContext context = new LabeledLocalTrigramContext(
+				words, 0, null, null, null);
+		int position = 0;
+		int lastPosition = -1;
+
+		public boolean hasNext() {
+			while (position > lastPosition) {
+				if (!sentenceIterator.hasNext())
+					return false;
+				TaggedSentence taggedSentence = sentenceIterator.next();
+				words.setList(taggedSentence.getWords());
+				tags.setList(taggedSentence.getTags());
+				position = 0;
+				lastPosition = taggedSentence.size() + 1;
+			}
+			return true;
+		}
+
+		public LabeledLocalTrigramContext next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			context.position = position;
+			context.previousPreviousTag = tags.get(position - 2);
+			context.previousTag = tags.get(position - 1);
+			context.currentTag = tags.get(position);
+			position++;
+			return context;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public LabeledLocalTrigramContextIterator(
+				Iterator<TaggedSentence> sentenceIterator) {
+			this.sentenceIterator = sentenceIterator;
+		}
+	}
+
 	/**
 	 * A LocalTrigramContext is a position in a sentence, along with the
 	 * previous two tags -- basically a FeatureVector.
@@ -497,9 +548,13 @@ public class POSTaggerTester {
 		Counter<String> getLogScoreCounter(
 				LocalTrigramContext localTrigramContext);
 
-		void train(List<LabeledLocalTrigramContext> localTrigramContexts);
+		/**
+		 * The contexts are streamed: a context object may be reused for the
+		 * next context once the loop moves on, so copy out anything to keep.
+		 */
+		void train(Iterable<LabeledLocalTrigramContext> localTrigramContexts);
 
-		void validate(List<LabeledLocalTrigramContext> localTrigramContexts);
+		void validate(Iterable<LabeledLocalTrigramContext> localTrigramContexts);
 	}
 
 	/**
@@ -565,7 +620,7 @@ public class POSTaggerTester {
 		}
 
 		public void train(
-				List<LabeledLocalTrigramContext> labeledLocalTrigramContexts) {
+				Iterable<LabeledLocalTrigramContext> labeledLocalTrigramContexts) {
 			// collect word-tag counts
 			for (LabeledLocalTrigramContext labeledLocalTrigramContext : labeledLocalTrigramContexts) {
 				String word = labeledLocalTrigramContext.getCurrentWord();
@@ -586,7 +641,7 @@ public class POSTaggerTester {
 		}
 
 		public void validate(
-				List<LabeledLocalTrigramContext> labeledLocalTrigramContexts) {
+				Iterable<LabeledLocalTrigramContext> labeledLocalTrigramContexts) {
 			// no tuning for this dummy model!
 		}
 
@@ -600,15 +655,15 @@ public class POSTaggerTester {
 		List<TaggedSentence> taggedSentences = new ArrayList<TaggedSentence>();
 		BufferedReader reader = new BufferedReader(new FileReader(path));
 		String line = "";
-		List<String> words = new LinkedList<String>();
-		List<String> tags = new LinkedList<String>();
+		List<String> words = new ArrayList<String>();
+		List<String> tags = new ArrayList<String>();
 		while ((line = reader.readLine()) != null) {
 			if (line.equals("")) {
 				taggedSentences.add(new TaggedSentence(new BoundedList<String>(
 						words, START_WORD, STOP_WORD), new BoundedList<String>(
 						tags, START_WORD, STOP_WORD)));
-				words = new LinkedList<String>();
-				tags = new LinkedList<String>();
+				words = new ArrayList<String>();
+				tags = new ArrayList<String>();
 			} else {
 				String[] fields = line.split("\\s+");
 				words.add(fields[0]);
@@ -95,6 +95,24 @@ public class ProperNameTester {
 		System.out.println("Accuracy: " + accuracy);
 	}
 
+	private static double[] parseDoubles(String list) {
+		String[] parts = list.split(",");
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	private static int[] parseInts(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
 	public static void main(String[] args) throws IOException {
 		// Parse command line flags and arguments
 		Map<String, String> argMap = CommandLineUtils
@@ -105,6 +123,14 @@ public class ProperNameTester {
 		String model = "baseline";
 		boolean verbose = false;
 		boolean useValidation = true;
+		boolean benchmark = false;
+		boolean tune = false;
+		int numFolds = 5;
+		String sigmas = "0.25,0.5,1,2,4";
+		String iterationCounts = "10,20,50";
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int order = 4;
+		int cacheSize = 0;
 
 		// Update defaults using command line specifications
 
@@ -134,6 +160,39 @@ public class ProperNameTester {
 			verbose = true;
 		}
 
+		// Whether to time the maxent objective before training
+		if (argMap.containsKey("-benchmark")) {
+			benchmark = true;
+		}
+
+		// Whether to pick the maxent sigma and iteration count by
+		// cross-validation on the training data, over the given grid
+		if (argMap.containsKey("-tune")) {
+			tune = true;
+		}
+		if (argMap.containsKey("-folds")) {
+			numFolds = Integer.parseInt(argMap.get("-folds"));
+		}
+		if (argMap.containsKey("-sigmas")) {
+			sigmas = argMap.get("-sigmas");
+		}
+		if (argMap.containsKey("-iterations")) {
+			iterationCounts = argMap.get("-iterations");
+		}
+		if (argMap.containsKey("-threads")) {
+			numThreads = Integer.parseInt(argMap.get("-threads"));
+		}
+
+		// How many names' maxent features to cache (0 for no cache)
+		if (argMap.containsKey("-cache")) {
+			cacheSize = Integer.parseInt(argMap.get("-cache"));
+		}
+
+		// The order of the character n-gram model
+		if (argMap.containsKey("-order")) {
+			order = Integer.parseInt(argMap.get("-order"));
+		}
+
 		// Load training, validation, and test data
 		List<LabeledInstance<String, String>> trainingData = loadData(basePath
 				+ "/pnp-train.txt");
@@ -144,15 +203,42 @@ public class ProperNameTester {
 
 		// Learn a classifier
 		ProbabilisticClassifier<String, String> classifier = null;
+		CachingFeatureExtractor<String, String> featureCache = null;
 		if (model.equalsIgnoreCase("baseline")) {
 			classifier = new MostFrequentLabelClassifier.Factory<String, String>()
 					.trainClassifier(trainingData);
 		} else if (model.equalsIgnoreCase("n-gram")) {
-			// TODO: construct your n-gram model here
+			classifier = new CharacterNGramClassifier.Factory(order)
+					.trainClassifier(trainingData);
 		} else if (model.equalsIgnoreCase("maxent")) {
 			// TODO: construct your maxent model here
-			ProbabilisticClassifierFactory<String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
-					1.0, 20, new ProperNameFeatureExtractor());
+			FeatureExtractor<String, String> featureExtractor = new ProperNameFeatureExtractor();
+			if (cacheSize > 0) {
+				featureCache = new CachingFeatureExtractor<String, String>(
+						featureExtractor, cacheSize);
+				featureExtractor = featureCache;
+			}
+			double sigma = 1.0;
+			int iterations = 20;
+			if (tune) {
+				MaximumEntropyClassifier.Factory<String, String, String> tuningFactory = new MaximumEntropyClassifier.Factory<String, String, String>(
+						sigma, iterations, featureExtractor);
+				tuningFactory.setNumThreads(numThreads);
+				MaximumEntropyClassifier.CrossValidationResult best = null;
+				for (MaximumEntropyClassifier.CrossValidationResult result : tuningFactory
+						.crossValidate(trainingData, numFolds,
+								parseDoubles(sigmas), parseInts(iterationCounts))) {
+					if (best == null || result.getAccuracy() > best.getAccuracy())
+						best = result;
+				}
+				System.out.println("Best: " + best);
+				sigma = best.getSigma();
+				iterations = best.getIterations();
+			}
+			MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+					sigma, iterations, featureExtractor);
+			if (benchmark)
+				factory.benchmarkObjective(trainingData, 20);
 			classifier = factory.trainClassifier(trainingData);
 		} else {
 			throw new RuntimeException("Unknown model descriptor: " + model);
@@ -161,5 +247,7 @@ public class ProperNameTester {
 		// Test classifier
 		testClassifier(classifier, (useValidation ? validationData : testData),
 				verbose);
+		if (featureCache != null)
+			System.out.println("Feature " + featureCache);
 	}
 }
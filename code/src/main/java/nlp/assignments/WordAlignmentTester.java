@@ -87,33 +87,35 @@ public class WordAlignmentTester {
 	 * addAlignment(i,j,true). To display one, use the render method.
 	 */
 	public static class Alignment {
-		Set<Pair<Integer, Integer>> sureAlignments;
-		Set<Pair<Integer, Integer>> possibleAlignments;
+		/**
+		 * (englishPosition, frenchPosition) pairs, packed with IntPair.pack.
+		 */
+		LongHashSet sureAlignments;
+		LongHashSet possibleAlignments;
 
 		public boolean containsSureAlignment(int englishPosition,
 				int frenchPosition) {
-			return sureAlignments.contains(new Pair<Integer, Integer>(
-					englishPosition, frenchPosition));
+			return sureAlignments.contains(IntPair.pack(englishPosition,
+					frenchPosition));
 		}
 
 		public boolean containsPossibleAlignment(int englishPosition,
 				int frenchPosition) {
-			return possibleAlignments.contains(new Pair<Integer, Integer>(
-					englishPosition, frenchPosition));
+			return possibleAlignments.contains(IntPair.pack(englishPosition,
+					frenchPosition));
 		}
 
 		public void addAlignment(int englishPosition, int frenchPosition,
 				boolean sure) {
-			Pair<Integer, Integer> alignment = new Pair<Integer, Integer>(
-					englishPosition, frenchPosition);
+			long alignment = IntPair.pack(englishPosition, frenchPosition);
 			if (sure)
 				sureAlignments.add(alignment);
 			possibleAlignments.add(alignment);
 		}
 
 		public Alignment() {
-			sureAlignments = new HashSet<Pair<Integer, Integer>>();
-			possibleAlignments = new HashSet<Pair<Integer, Integer>>();
+			sureAlignments = new LongHashSet();
+			possibleAlignments = new LongHashSet();
 		}
 
 		public static String render(Alignment alignment,
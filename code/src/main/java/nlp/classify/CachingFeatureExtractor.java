@@ -0,0 +1,139 @@
+package nlp.classify;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nlp.util.Counter;
+
+/**
+ * Wraps a feature extractor, remembering the features of recently seen
+ * inputs so that an input extracted again (a name repeated in the data, or
+ * the same name passed to getLabel() and then getProbabilities()) costs one
+ * lookup instead of a fresh extraction. Inputs are matched with equals() and
+ * hashCode(), so they should be values such as strings, not arrays.
+ * <p/>
+ * The cache holds at most maxSize inputs (rounded up to a multiple of the
+ * number of segments). It is split into independently locked segments by
+ * input hash, each evicting its least recently used input, so threads
+ * extracting different inputs rarely contend. Extraction itself runs
+ * outside any lock. The returned counters are shared between callers and
+ * must not be modified.
+ */
+public class CachingFeatureExtractor<I, O> implements FeatureExtractor<I, O> {
+	private static final int NUM_SEGMENTS = 16;
+
+	FeatureExtractor<I, O> featureExtractor;
+	Segment<I, O>[] segments;
+
+	static class Segment<I, O> extends LinkedHashMap<I, Counter<O>> {
+		private static final long serialVersionUID = 1L;
+		int maxSize;
+		long hits;
+		long misses;
+
+		protected boolean removeEldestEntry(Map.Entry<I, Counter<O>> eldest) {
+			return size() > maxSize;
+		}
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+	}
+
+	public Counter<O> extractFeatures(I instance) {
+		Segment<I, O> segment = getSegment(instance);
+		synchronized (segment) {
+			Counter<O> features = segment.get(instance);
+			if (features != null) {
+				segment.hits++;
+				return features;
+			}
+			segment.misses++;
+		}
+		Counter<O> features = featureExtractor.extractFeatures(instance);
+		synchronized (segment) {
+			segment.put(instance, features);
+		}
+		return features;
+	}
+
+	private Segment<I, O> getSegment(I instance) {
+		int h = instance.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (NUM_SEGMENTS - 1)];
+	}
+
+	public long getHits() {
+		long hits = 0;
+		for (Segment<I, O> segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for (Segment<I, O> segment : segments) {
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * The fraction of extractions answered from the cache; 0 if there were
+	 * none.
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return (total == 0 ? 0.0 : (double) hits / total);
+	}
+
+	/**
+	 * The number of inputs currently cached.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<I, O> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Empties the cache and resets the statistics.
+	 */
+	public void clear() {
+		for (Segment<I, O> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+				segment.hits = 0;
+				segment.misses = 0;
+			}
+		}
+	}
+
+	public String toString() {
+		return "cache size=" + size() + " hits=" + getHits() + " misses="
+				+ getMisses() + " hitRate=" + getHitRate();
+	}
+
+	@SuppressWarnings("unchecked")
+	public CachingFeatureExtractor(FeatureExtractor<I, O> featureExtractor,
+			int maxSize) {
+		this.featureExtractor = featureExtractor;
+		this.segments = (Segment<I, O>[]) new Segment<?, ?>[NUM_SEGMENTS];
+		int segmentSize = Math.max(1, (maxSize + NUM_SEGMENTS - 1)
+				/ NUM_SEGMENTS);
+		for (int i = 0; i < NUM_SEGMENTS; i++) {
+			segments[i] = new Segment<I, O>(segmentSize);
+		}
+	}
+}
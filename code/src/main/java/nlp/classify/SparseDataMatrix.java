@@ -0,0 +1,369 @@
+package nlp.classify;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoded training data as a sparse matrix in compressed sparse row form: row
+ * i (a datum) has label getLabel(i) and non-zero columns (features)
+ * getColumn(k) with values getValue(k), for positions k from getStart(i) to
+ * getEnd(i) - 1. All rows share one array of columns and one of values, so
+ * a pass over the data reads memory in order instead of chasing one small
+ * array per datum. If every value is 1.0 (binary features), no values are
+ * stored at all.
+ * <p/>
+ * A matrix can be written to a file and read back, or mapped: a mapped
+ * matrix reads its arrays from the file as they are used, so it can be
+ * larger than the heap. Each array must fit in one mapping, which limits a
+ * matrix to under 2^28 non-zero entries (2^29 if binary). Labels are -1 for
+ * unlabeled data.
+ */
+public class SparseDataMatrix {
+	private static final int MAGIC = 0x4e4c5344;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 24;
+	private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+	int numColumns;
+	IntBuffer labels;
+	IntBuffer offsets;
+	IntBuffer columns;
+	/**
+	 * Null for a binary matrix.
+	 */
+	DoubleBuffer values;
+
+	public int getNumRows() {
+		return labels.limit();
+	}
+
+	/**
+	 * One more than the largest column index.
+	 */
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	public int getNumEntries() {
+		return columns.limit();
+	}
+
+	/**
+	 * Whether all values are 1.0 (and so not stored).
+	 */
+	public boolean isBinary() {
+		return values == null;
+	}
+
+	public int getLabel(int row) {
+		return labels.get(row);
+	}
+
+	/**
+	 * The position of the row's first entry.
+	 */
+	public int getStart(int row) {
+		return offsets.get(row);
+	}
+
+	/**
+	 * One past the position of the row's last entry.
+	 */
+	public int getEnd(int row) {
+		return offsets.get(row + 1);
+	}
+
+	public int getColumn(int position) {
+		return columns.get(position);
+	}
+
+	public double getValue(int position) {
+		if (values == null)
+			return 1.0;
+		return values.get(position);
+	}
+
+	/**
+	 * The rows of the given matrices, one after the other.
+	 */
+	public static SparseDataMatrix concatenate(List<SparseDataMatrix> matrices) {
+		int numRows = 0;
+		int numEntries = 0;
+		int numColumns = 0;
+		boolean binary = true;
+		for (SparseDataMatrix matrix : matrices) {
+			numRows += matrix.getNumRows();
+			numEntries += matrix.getNumEntries();
+			numColumns = Math.max(numColumns, matrix.numColumns);
+			binary &= matrix.isBinary();
+		}
+		int[] labels = new int[numRows];
+		int[] offsets = new int[numRows + 1];
+		int[] columns = new int[numEntries];
+		double[] values = (binary ? null : new double[numEntries]);
+		int row = 0;
+		int position = 0;
+		for (SparseDataMatrix matrix : matrices) {
+			int matrixRows = matrix.getNumRows();
+			int matrixEntries = matrix.getNumEntries();
+			for (int i = 0; i < matrixRows; i++) {
+				labels[row + i] = matrix.getLabel(i);
+				offsets[row + i + 1] = position + matrix.getEnd(i);
+			}
+			for (int k = 0; k < matrixEntries; k++) {
+				columns[position + k] = matrix.getColumn(k);
+				if (values != null)
+					values[position + k] = matrix.getValue(k);
+			}
+			row += matrixRows;
+			position += matrixEntries;
+		}
+		return new SparseDataMatrix(numColumns, labels, offsets, columns,
+				values);
+	}
+
+	/**
+	 * A new matrix (in the heap) of the given rows of this one, in the given
+	 * order; for instance the training part of a cross-validation fold.
+	 */
+	public SparseDataMatrix selectRows(int[] rows) {
+		int numEntries = 0;
+		for (int row : rows) {
+			numEntries += getEnd(row) - getStart(row);
+		}
+		int[] newLabels = new int[rows.length];
+		int[] newOffsets = new int[rows.length + 1];
+		int[] newColumns = new int[numEntries];
+		double[] newValues = (isBinary() ? null : new double[numEntries]);
+		int position = 0;
+		for (int i = 0; i < rows.length; i++) {
+			int row = rows[i];
+			newLabels[i] = getLabel(row);
+			for (int k = getStart(row); k < getEnd(row); k++) {
+				newColumns[position] = getColumn(k);
+				if (newValues != null)
+					newValues[position] = getValue(k);
+				position++;
+			}
+			newOffsets[i + 1] = position;
+		}
+		return new SparseDataMatrix(numColumns, newLabels, newOffsets,
+				newColumns, newValues);
+	}
+
+	/**
+	 * Builds a matrix one row at a time.
+	 */
+	public static class Builder {
+		int numRows;
+		int numEntries;
+		int numColumns;
+		boolean binary = true;
+		int[] labels = new int[16];
+		int[] offsets = new int[17];
+		int[] columns = new int[64];
+		double[] values = new double[64];
+
+		/**
+		 * Adds a row with the given label and entries columns[k], values[k]
+		 * for k from 0 to length - 1.
+		 */
+		public void addRow(int label, int[] columns, double[] values,
+				int length) {
+			if (numRows + 1 == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * labels.length);
+				offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+			}
+			ensureEntries(numEntries + length);
+			for (int k = 0; k < length; k++) {
+				int column = columns[k];
+				double value = values[k];
+				this.columns[numEntries] = column;
+				this.values[numEntries] = value;
+				numEntries++;
+				if (column >= numColumns)
+					numColumns = column + 1;
+				if (value != 1.0)
+					binary = false;
+			}
+			labels[numRows] = label;
+			numRows++;
+			offsets[numRows] = numEntries;
+		}
+
+		private void ensureEntries(int capacity) {
+			if (capacity <= columns.length)
+				return;
+			capacity = Math.max(capacity, 2 * columns.length);
+			columns = Arrays.copyOf(columns, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		public int getNumRows() {
+			return numRows;
+		}
+
+		public SparseDataMatrix build() {
+			return new SparseDataMatrix(numColumns, Arrays.copyOf(labels,
+					numRows), Arrays.copyOf(offsets, numRows + 1), Arrays
+					.copyOf(columns, numEntries), (binary ? null : Arrays
+					.copyOf(values, numEntries)));
+		}
+	}
+
+	/**
+	 * Writes the matrix: a header, then the labels, offsets, columns and (if
+	 * not binary) values as raw little-endian arrays.
+	 */
+	public void write(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+					ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(getNumRows()).putInt(
+					getNumEntries()).putInt(numColumns).putInt(
+					isBinary() ? 1 : 0);
+			header.flip();
+			writeFully(channel, header);
+			ByteBuffer buffer = newBuffer(WRITE_BUFFER_BYTES);
+			writeInts(channel, labels, buffer);
+			writeInts(channel, offsets, buffer);
+			writeInts(channel, columns, buffer);
+			if (values != null) {
+				for (int k = 0; k < values.limit(); k++) {
+					if (buffer.remaining() < 8)
+						flush(channel, buffer);
+					buffer.putDouble(values.get(k));
+				}
+				flush(channel, buffer);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void writeInts(FileChannel channel, IntBuffer ints,
+			ByteBuffer buffer) throws IOException {
+		for (int i = 0; i < ints.limit(); i++) {
+			if (buffer.remaining() < 4)
+				flush(channel, buffer);
+			buffer.putInt(ints.get(i));
+		}
+		flush(channel, buffer);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		writeFully(channel, buffer);
+		buffer.clear();
+	}
+
+	private static ByteBuffer newBuffer(int bytes) {
+		return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads a matrix written by write() into the heap.
+	 */
+	public static SparseDataMatrix read(File file) throws IOException {
+		SparseDataMatrix mapped = map(file);
+		int[] labels = new int[mapped.getNumRows()];
+		mapped.labels.get(labels);
+		int[] offsets = new int[labels.length + 1];
+		mapped.offsets.get(offsets);
+		int[] columns = new int[mapped.getNumEntries()];
+		mapped.columns.get(columns);
+		double[] values = null;
+		if (mapped.values != null) {
+			values = new double[columns.length];
+			mapped.values.get(values);
+		}
+		return new SparseDataMatrix(mapped.numColumns, labels, offsets,
+				columns, values);
+	}
+
+	/**
+	 * Maps a matrix written by write(). The mapping stays valid after the
+	 * file is closed; the matrix is read-only.
+	 */
+	public static SparseDataMatrix map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = newBuffer(HEADER_BYTES);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0)
+					throw new IOException("Truncated data matrix: " + file);
+			}
+			if (header.getInt(0) != MAGIC)
+				throw new IOException("Not a data matrix: " + file);
+			if (header.getInt(4) != VERSION)
+				throw new IOException("Unsupported data matrix version: "
+						+ header.getInt(4));
+			int numRows = header.getInt(8);
+			int numEntries = header.getInt(12);
+			SparseDataMatrix matrix = new SparseDataMatrix();
+			matrix.numColumns = header.getInt(16);
+			boolean binary = (header.getInt(20) != 0);
+			long position = HEADER_BYTES;
+			matrix.labels = map(channel, position, 4L * numRows).asIntBuffer();
+			position += 4L * numRows;
+			matrix.offsets = map(channel, position, 4L * (numRows + 1))
+					.asIntBuffer();
+			position += 4L * (numRows + 1);
+			matrix.columns = map(channel, position, 4L * numEntries)
+					.asIntBuffer();
+			position += 4L * numEntries;
+			if (!binary)
+				matrix.values = map(channel, position, 8L * numEntries)
+						.asDoubleBuffer();
+			return matrix;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position,
+			long bytes) throws IOException {
+		if (bytes > Integer.MAX_VALUE)
+			throw new IOException("Data matrix array too large to map: "
+					+ bytes + " bytes");
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	SparseDataMatrix() {
+	}
+
+	/**
+	 * A matrix over the given arrays, which are not copied. values may be
+	 * null if all values are 1.0.
+	 */
+	public SparseDataMatrix(int numColumns, int[] labels, int[] offsets,
+			int[] columns, double[] values) {
+		this.numColumns = numColumns;
+		this.labels = IntBuffer.wrap(labels);
+		this.offsets = IntBuffer.wrap(offsets);
+		this.columns = IntBuffer.wrap(columns);
+		if (values != null)
+			this.values = DoubleBuffer.wrap(values);
+	}
+}
@@ -0,0 +1,510 @@
+package nlp.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import nlp.util.Counter;
+import nlp.util.CounterMap;
+import nlp.util.Indexer;
+import nlp.util.SparseVector;
+
+/**
+ * A compact binary format for Counters, CounterMaps and Indexers, as an
+ * alternative to Java serialization for trained tables. Counter and CounterMap
+ * keys are written as integer ids from Indexers (which are written
+ * separately), so each table is:
+ * <ul>
+ * <li>the counts, as one raw array of doubles,</li>
+ * <li>for each row (a CounterMap key; a Counter is a single row), the index of
+ * its first count in that array,</li>
+ * <li>the row key ids and each row's sorted value ids, delta-coded as
+ * variable-length integers.</li>
+ * </ul>
+ * Each record starts with a magic number, format version, record kind and
+ * length, so several records can be written back to back on one channel and
+ * read back in the same order. All numbers are little-endian.
+ * <p/>
+ * A file holding a table can also be opened with map(), which maps it instead
+ * of reading it: only the row keys are decoded up front, and counts are read
+ * from the mapping as they are asked for.
+ */
+public class CounterCodec {
+	private static final int MAGIC = 0x4e4c5043;
+	private static final int VERSION = 1;
+	private static final int KIND_INDEXER = 1;
+	private static final int KIND_COUNTER = 2;
+	private static final int KIND_COUNTER_MAP = 3;
+	private static final int HEADER_BYTES = 16;
+	private static final int TABLE_HEADER_BYTES = 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Converts the objects of an Indexer to and from bytes.
+	 */
+	public static interface KeyCodec<E> {
+		byte[] toBytes(E key);
+
+		E fromBytes(byte[] bytes);
+	}
+
+	public static final KeyCodec<String> STRING_CODEC = new KeyCodec<String>() {
+		public byte[] toBytes(String key) {
+			return key.getBytes(UTF8);
+		}
+
+		public String fromBytes(byte[] bytes) {
+			return new String(bytes, UTF8);
+		}
+	};
+
+	/**
+	 * A read-only view of a table (a Counter or CounterMap over ids) mapped
+	 * from a file. Row keys are decoded when the view is built; counts and
+	 * value ids are read from the mapping on demand.
+	 */
+	public static class MappedTable {
+		int numRows;
+		int numEntries;
+		int[] rowKeys;
+		ByteBuffer values;
+		ByteBuffer rowStarts;
+		ByteBuffer rowByteOffsets;
+		ByteBuffer ids;
+
+		public int getNumRows() {
+			return numRows;
+		}
+
+		public int getNumEntries() {
+			return numEntries;
+		}
+
+		/**
+		 * The key id of the given row; rows are in increasing key id order.
+		 */
+		public int getRowKey(int row) {
+			return rowKeys[row];
+		}
+
+		/**
+		 * The row with the given key id, or -1 if there is none.
+		 */
+		public int findRow(int keyId) {
+			int row = Arrays.binarySearch(rowKeys, keyId);
+			return (row < 0 ? -1 : row);
+		}
+
+		/**
+		 * Decodes one row into a SparseVector over value ids.
+		 */
+		public SparseVector getRow(int row) {
+			int start = rowStarts.getInt(4 * row);
+			int end = rowStarts.getInt(4 * (row + 1));
+			int[] valueIds = new int[end - start];
+			double[] counts = new double[end - start];
+			int[] position = { rowByteOffsets.getInt(4 * row) };
+			int valueId = 0;
+			for (int i = 0; i < valueIds.length; i++) {
+				valueId += readVarint(ids, position);
+				valueIds[i] = valueId;
+				counts[i] = values.getDouble(8 * (start + i));
+			}
+			return new SparseVector(valueIds, counts);
+		}
+
+		/**
+		 * The count of the (key id, value id) entry, or zero if absent. Scans
+		 * the row's delta-coded value ids, so it is linear in the row length.
+		 */
+		public double getCount(int keyId, int valueId) {
+			int row = findRow(keyId);
+			if (row < 0)
+				return 0.0;
+			int start = rowStarts.getInt(4 * row);
+			int end = rowStarts.getInt(4 * (row + 1));
+			int[] position = { rowByteOffsets.getInt(4 * row) };
+			int id = 0;
+			for (int i = start; i < end; i++) {
+				id += readVarint(ids, position);
+				if (id == valueId)
+					return values.getDouble(8 * i);
+				if (id > valueId)
+					break;
+			}
+			return 0.0;
+		}
+
+		/**
+		 * For a mapped Counter (a single-row table), the count of the key id.
+		 */
+		public double getCount(int keyId) {
+			return getCount(0, keyId);
+		}
+	}
+
+	// Indexers
+
+	/**
+	 * Writes the indexer's objects in index order.
+	 */
+	public static <E> void writeIndexer(Indexer<E> indexer,
+			KeyCodec<E> keyCodec, WritableByteChannel channel)
+			throws IOException {
+		Output out = new Output(64 + 8 * indexer.size());
+		writeVarint(out, indexer.size());
+		for (E object : indexer) {
+			byte[] bytes = keyCodec.toBytes(object);
+			writeVarint(out, bytes.length);
+			out.ensure(bytes.length);
+			out.buffer.put(bytes);
+		}
+		writeRecord(channel, KIND_INDEXER, out);
+	}
+
+	public static <E> Indexer<E> readIndexer(KeyCodec<E> keyCodec,
+			ReadableByteChannel channel) throws IOException {
+		ByteBuffer payload = readRecord(channel, KIND_INDEXER);
+		int[] position = { 0 };
+		int size = readVarint(payload, position);
+		Indexer<E> indexer = new Indexer<E>();
+		for (int i = 0; i < size; i++) {
+			byte[] bytes = new byte[readVarint(payload, position)];
+			payload.position(position[0]);
+			payload.get(bytes);
+			position[0] += bytes.length;
+			indexer.add(keyCodec.fromBytes(bytes));
+		}
+		return indexer;
+	}
+
+	// Counters and CounterMaps
+
+	/**
+	 * Writes a counter, with keys numbered by the indexer. Keys not yet in
+	 * the indexer are added to it, so write the indexer after its counters.
+	 */
+	public static <E> void writeCounter(Counter<E> counter,
+			Indexer<E> indexer, WritableByteChannel channel) throws IOException {
+		SparseVector[] rows = { SparseVector.fromCounter(counter, indexer) };
+		writeRecord(channel, KIND_COUNTER, encodeTable(new int[] { 0 }, rows));
+	}
+
+	public static <E> Counter<E> readCounter(Indexer<E> indexer,
+			ReadableByteChannel channel) throws IOException {
+		MappedTable table = decodeTable(readRecord(channel, KIND_COUNTER));
+		if (table.getNumRows() == 0)
+			return new Counter<E>();
+		return table.getRow(0).toCounter(indexer);
+	}
+
+	/**
+	 * Writes a counter map, with keys and values numbered by the indexers.
+	 * Keys and values not yet in the indexers are added to them.
+	 */
+	public static <K, V> void writeCounterMap(CounterMap<K, V> counterMap,
+			Indexer<K> keyIndexer, Indexer<V> valueIndexer,
+			WritableByteChannel channel) throws IOException {
+		int[] keyIds = new int[counterMap.keySet().size()];
+		SparseVector[] rows = new SparseVector[keyIds.length];
+		int row = 0;
+		for (K key : counterMap.keySet()) {
+			keyIds[row] = keyIndexer.addAndGetIndex(key);
+			rows[row] = SparseVector.fromCounter(counterMap.getCounter(key),
+					valueIndexer);
+			row++;
+		}
+		sortRows(keyIds, rows);
+		writeRecord(channel, KIND_COUNTER_MAP, encodeTable(keyIds, rows));
+	}
+
+	public static <K, V> CounterMap<K, V> readCounterMap(
+			Indexer<K> keyIndexer, Indexer<V> valueIndexer,
+			ReadableByteChannel channel) throws IOException {
+		MappedTable table = decodeTable(readRecord(channel, KIND_COUNTER_MAP));
+		CounterMap<K, V> counterMap = new CounterMap<K, V>();
+		for (int row = 0; row < table.getNumRows(); row++) {
+			K key = keyIndexer.get(table.getRowKey(row));
+			SparseVector counts = table.getRow(row);
+			for (int i = 0; i < counts.size(); i++) {
+				counterMap.setCount(key, valueIndexer.get(counts.getIndex(i)),
+						counts.getValue(i));
+			}
+		}
+		return counterMap;
+	}
+
+	/**
+	 * Maps the table (Counter or CounterMap) record at the start of a file.
+	 */
+	public static MappedTable map(File file) throws IOException {
+		return map(file, 0);
+	}
+
+	/**
+	 * Maps the table (Counter or CounterMap) record at the given byte offset
+	 * in a file. The mapping stays valid after this method returns.
+	 */
+	public static MappedTable map(File file, long offset) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+					offset, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			int kind = checkHeader(header);
+			if (kind != KIND_COUNTER && kind != KIND_COUNTER_MAP)
+				throw new IOException("Not a Counter or CounterMap record: kind "
+						+ kind);
+			ByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY,
+					offset + HEADER_BYTES, header.getInt(12));
+			return decodeTable(payload.order(ByteOrder.LITTLE_ENDIAN));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Table payload: numRows, numEntries, number of id bytes, reserved; then
+	 * the counts, row starts (numRows + 1 entry indexes), row byte offsets
+	 * into the id bytes (numRows + 1), and the id bytes: the delta-coded row
+	 * keys followed by each row's delta-coded value ids.
+	 */
+	private static Output encodeTable(int[] keyIds, SparseVector[] rows) {
+		int numEntries = 0;
+		for (SparseVector row : rows) {
+			numEntries += row.size();
+		}
+		Output ids = new Output(5 * (keyIds.length + numEntries) + 16);
+		int[] rowByteOffsets = new int[rows.length + 1];
+		int previousKey = 0;
+		for (int row = 0; row < rows.length; row++) {
+			writeVarint(ids, keyIds[row] - previousKey);
+			previousKey = keyIds[row];
+		}
+		for (int row = 0; row < rows.length; row++) {
+			rowByteOffsets[row] = ids.buffer.position();
+			int previousId = 0;
+			for (int i = 0; i < rows[row].size(); i++) {
+				writeVarint(ids, rows[row].getIndex(i) - previousId);
+				previousId = rows[row].getIndex(i);
+			}
+		}
+		rowByteOffsets[rows.length] = ids.buffer.position();
+		int idBytes = ids.buffer.position();
+
+		Output out = new Output(TABLE_HEADER_BYTES + 8 * numEntries + 8
+				* (rows.length + 1) + idBytes);
+		out.buffer.putInt(rows.length).putInt(numEntries).putInt(idBytes)
+				.putInt(0);
+		for (SparseVector row : rows) {
+			for (int i = 0; i < row.size(); i++) {
+				out.buffer.putDouble(row.getValue(i));
+			}
+		}
+		int rowStart = 0;
+		for (int row = 0; row <= rows.length; row++) {
+			out.buffer.putInt(rowStart);
+			if (row < rows.length)
+				rowStart += rows[row].size();
+		}
+		for (int row = 0; row <= rows.length; row++) {
+			out.buffer.putInt(rowByteOffsets[row]);
+		}
+		ids.buffer.flip();
+		out.buffer.put(ids.buffer);
+		return out;
+	}
+
+	private static MappedTable decodeTable(ByteBuffer payload) {
+		MappedTable table = new MappedTable();
+		table.numRows = payload.getInt(0);
+		table.numEntries = payload.getInt(4);
+		int idBytes = payload.getInt(8);
+		int position = TABLE_HEADER_BYTES;
+		table.values = slice(payload, position, 8 * table.numEntries);
+		position += 8 * table.numEntries;
+		table.rowStarts = slice(payload, position, 4 * (table.numRows + 1));
+		position += 4 * (table.numRows + 1);
+		table.rowByteOffsets = slice(payload, position,
+				4 * (table.numRows + 1));
+		position += 4 * (table.numRows + 1);
+		table.ids = slice(payload, position, idBytes);
+		table.rowKeys = new int[table.numRows];
+		int[] idPosition = { 0 };
+		int key = 0;
+		for (int row = 0; row < table.numRows; row++) {
+			key += readVarint(table.ids, idPosition);
+			table.rowKeys[row] = key;
+		}
+		return table;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position,
+			int length) {
+		ByteBuffer section = buffer.duplicate();
+		section.position(position);
+		section.limit(position + length);
+		return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Sorts rows by key id, via (key id, row) pairs packed into longs.
+	 */
+	private static void sortRows(int[] keyIds, SparseVector[] rows) {
+		long[] packed = new long[keyIds.length];
+		for (int row = 0; row < keyIds.length; row++) {
+			packed[row] = ((long) keyIds[row] << 32) | row;
+		}
+		Arrays.sort(packed);
+		SparseVector[] sortedRows = new SparseVector[rows.length];
+		for (int i = 0; i < packed.length; i++) {
+			keyIds[i] = (int) (packed[i] >>> 32);
+			sortedRows[i] = rows[(int) packed[i]];
+		}
+		System.arraycopy(sortedRows, 0, rows, 0, rows.length);
+	}
+
+	// Records and varints
+
+	/**
+	 * A growable little-endian output buffer.
+	 */
+	private static class Output {
+		ByteBuffer buffer;
+
+		void ensure(int numBytes) {
+			if (buffer.remaining() >= numBytes)
+				return;
+			ByteBuffer newBuffer = ByteBuffer.allocate(
+					Math.max(2 * buffer.capacity(), buffer.position()
+							+ numBytes)).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.flip();
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		}
+
+		Output(int capacity) {
+			buffer = ByteBuffer.allocate(capacity).order(
+					ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static void writeRecord(WritableByteChannel channel, int kind,
+			Output payload) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(kind)
+				.putInt(payload.buffer.position());
+		header.flip();
+		payload.buffer.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		while (payload.buffer.hasRemaining()) {
+			channel.write(payload.buffer);
+		}
+	}
+
+	private static ByteBuffer readRecord(ReadableByteChannel channel,
+			int expectedKind) throws IOException {
+		ByteBuffer header = readFully(channel, HEADER_BYTES);
+		int kind = checkHeader(header);
+		if (kind != expectedKind)
+			throw new IOException("Expected record kind " + expectedKind
+					+ " but found " + kind);
+		return readFully(channel, header.getInt(12));
+	}
+
+	private static int checkHeader(ByteBuffer header) throws IOException {
+		if (header.getInt(0) != MAGIC)
+			throw new IOException("Bad magic number: "
+					+ Integer.toHexString(header.getInt(0)));
+		if (header.getInt(4) != VERSION)
+			throw new IOException("Unsupported format version: "
+					+ header.getInt(4));
+		return header.getInt(8);
+	}
+
+	private static ByteBuffer readFully(ReadableByteChannel channel,
+			int numBytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(numBytes).order(
+				ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new IOException("Unexpected end of channel");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes a non-negative int in 7-bit groups, low group first, with the
+	 * high bit of each byte set if more follow.
+	 */
+	private static void writeVarint(Output out, int value) {
+		out.ensure(5);
+		while ((value & ~0x7f) != 0) {
+			out.buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads a varint at position[0] of the buffer, advancing position[0].
+	 */
+	private static int readVarint(ByteBuffer buffer, int[] position) {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get(position[0]++);
+			value |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+			shift += 7;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		CounterMap<String, String> wordsToTags = new CounterMap<String, String>();
+		wordsToTags.incrementCount("the", "DT", 100.0);
+		wordsToTags.incrementCount("dog", "NN", 12.0);
+		wordsToTags.incrementCount("run", "VB", 4.0);
+		wordsToTags.incrementCount("run", "NN", 2.5);
+		Indexer<String> words = new Indexer<String>();
+		Indexer<String> tags = new Indexer<String>();
+
+		File file = File.createTempFile("countermap", ".bin");
+		file.deleteOnExit();
+		FileChannel out = new FileOutputStream(file).getChannel();
+		writeCounterMap(wordsToTags, words, tags, out);
+		writeIndexer(words, STRING_CODEC, out);
+		writeIndexer(tags, STRING_CODEC, out);
+		out.close();
+		System.out.println("Wrote " + file.length() + " bytes");
+
+		// the indexers follow the table, so skip over it to read them first
+		FileChannel in = new FileInputStream(file).getChannel();
+		readRecord(in, KIND_COUNTER_MAP);
+		Indexer<String> readWords = readIndexer(STRING_CODEC, in);
+		Indexer<String> readTags = readIndexer(STRING_CODEC, in);
+		in.position(0);
+		System.out.println("Read back: "
+				+ readCounterMap(readWords, readTags, in));
+		in.close();
+
+		MappedTable table = map(file);
+		System.out.println("Mapped count(run, NN) = "
+				+ table.getCount(readWords.indexOf("run"),
+						readTags.indexOf("NN")));
+	}
+}
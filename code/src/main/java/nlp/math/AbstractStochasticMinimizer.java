@@ -0,0 +1,269 @@
+package nlp.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The pass loop shared by the stochastic minimizers. Each pass visits the
+ * data in a new random order; for each datum, the function fills in a sparse
+ * gradient and the subclass updates the coordinates it touches.
+ * <p/>
+ * The function's L2 penalty is applied as weight decay, split evenly over
+ * the data: each update multiplies every coordinate by (1 - rate * c / n),
+ * for learning rate rate, penalty weight c and n data. To keep updates
+ * sparse, the decay is applied lazily: each coordinate remembers where in the
+ * pass it was last decayed, and catches up (by a precomputed product of the
+ * factors since then) at the end of the pass and before any datum that
+ * depends on it is evaluated. The function reports a datum's coordinates
+ * (getIndexes()) so that they are caught up first, which makes every datum
+ * see exactly the weights the eager update would give it. For plain SGD this
+ * is the L2 gradient step; for the adaptive minimizers the decay is
+ * decoupled from the adaptive step sizes.
+ * <p/>
+ * With more than one thread, the threads work through interleaved positions
+ * of each pass at once, all updating the same guess without locking
+ * (Hogwild!). A coordinate's catch-up claims its stretch of the pass with a
+ * compare-and-set, so each factor is still applied exactly once; but two
+ * threads writing the same coordinate at once can lose one of the writes,
+ * which for sparse problems is rare enough not to matter. Results are not
+ * reproducible run to run. Any per-step state of the update rule lives in
+ * the UpdateState of the thread making the update.
+ */
+public abstract class AbstractStochasticMinimizer implements
+		StochasticMinimizer {
+	double EPS = 1e-10;
+	int maxPasses = 10;
+	int numThreads = 1;
+	long seed = 0;
+	boolean printProgress = true;
+	LearningRateSchedule learningRateSchedule;
+
+	int[] order;
+	long firstStep;
+	double decayPerRate;
+	/**
+	 * logDecay[p] is the log of the product of the decay factors of the
+	 * first p updates of the current pass.
+	 */
+	double[] logDecay;
+	AtomicIntegerArray lastDecayed;
+
+	/**
+	 * The state one thread keeps between calls to update(), such as values
+	 * shared by all coordinates of one step. Each thread has its own.
+	 */
+	protected static class UpdateState {
+	}
+
+	/**
+	 * Allocates any per-coordinate state the update rule needs.
+	 */
+	protected abstract void initialize(int dimension);
+
+	/**
+	 * A new state for one thread's updates; by default an empty one.
+	 */
+	protected UpdateState newUpdateState() {
+		return new UpdateState();
+	}
+
+	/**
+	 * Updates coordinate index of x given its gradient for one datum.
+	 * Called for the step'th update overall, numbered from zero, with the
+	 * calling thread's state.
+	 */
+	protected abstract void update(double[] x, int index, double gradient,
+			double learningRate, long step, UpdateState state);
+
+	public void setMaxPasses(int maxPasses) {
+		this.maxPasses = maxPasses;
+	}
+
+	public void setLearningRateSchedule(
+			LearningRateSchedule learningRateSchedule) {
+		this.learningRateSchedule = learningRateSchedule;
+	}
+
+	/**
+	 * Number of threads making updates concurrently; see the class comment.
+	 * The function must support concurrent calls to calculate() if this is
+	 * more than 1 (the default).
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Seed for the random order of data in each pass.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setPrintProgress(boolean printProgress) {
+		this.printProgress = printProgress;
+	}
+
+	public double[] minimize(StochasticDifferentiableFunction function,
+			double[] initial, double tolerance) {
+		int numData = function.getNumData();
+		double[] x = DoubleArrays.clone(initial);
+		initialize(x.length);
+		order = new int[numData];
+		for (int i = 0; i < numData; i++) {
+			order[i] = i;
+		}
+		logDecay = new double[numData + 1];
+		lastDecayed = new AtomicIntegerArray(x.length);
+		double l2Weight = function.getL2Weight();
+		decayPerRate = (numData == 0 ? 0.0 : l2Weight / numData);
+		Random random = new Random(seed);
+		double lastValue = Double.NaN;
+		for (int pass = 0; pass < maxPasses; pass++) {
+			shuffle(order, random);
+			firstStep = (long) pass * numData;
+			computeLogDecay();
+			double value = runPass(function, x);
+			if (decayPerRate > 0.0) {
+				for (int index = 0; index < x.length; index++) {
+					catchUp(x, index, numData);
+					lastDecayed.set(index, 0);
+				}
+			}
+			value += 0.5 * l2Weight * DoubleArrays.innerProduct(x, x);
+			if (printProgress) {
+				System.out.printf("[%s.minimize] Pass %d ended with value %.6f\n",
+						getClass().getSimpleName(), pass, value);
+			}
+			if (converged(lastValue, value, tolerance))
+				break;
+			lastValue = value;
+		}
+		return x;
+	}
+
+	private void computeLogDecay() {
+		logDecay[0] = 0.0;
+		for (int position = 0; position < order.length; position++) {
+			double factor = 1.0;
+			if (decayPerRate > 0.0)
+				factor = 1.0 - getLearningRate(firstStep + position)
+						* decayPerRate;
+			logDecay[position + 1] = logDecay[position]
+					+ Math.log(Math.max(factor, Double.MIN_VALUE));
+		}
+	}
+
+	private double getLearningRate(long step) {
+		return learningRateSchedule.getLearningRate(step);
+	}
+
+	/**
+	 * Applies the decay of the updates from the coordinate's last decay up to
+	 * (not including) the given position of the pass. The stretch is claimed
+	 * before it is applied, so a thread racing to the same coordinate
+	 * applies only what is left (possibly nothing).
+	 */
+	private void catchUp(double[] x, int index, int position) {
+		while (true) {
+			int last = lastDecayed.get(index);
+			if (last >= position)
+				return;
+			if (lastDecayed.compareAndSet(index, last, position)) {
+				x[index] *= Math.exp(logDecay[position] - logDecay[last]);
+				return;
+			}
+		}
+	}
+
+	private double runPass(final StochasticDifferentiableFunction function,
+			final double[] x) {
+		if (numThreads <= 1)
+			return runPositions(function, x, 0, 1);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<Double>> threads = new ArrayList<Future<Double>>();
+		for (int thread = 0; thread < numThreads; thread++) {
+			final int first = thread;
+			threads.add(executor.submit(new Callable<Double>() {
+				public Double call() {
+					return runPositions(function, x, first, numThreads);
+				}
+			}));
+		}
+		double value = 0.0;
+		try {
+			for (Future<Double> thread : threads) {
+				value += thread.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return value;
+	}
+
+	/**
+	 * Processes positions first, first + stride, ... of the current pass,
+	 * returning the sum of the data values.
+	 */
+	private double runPositions(StochasticDifferentiableFunction function,
+			double[] x, int first, int stride) {
+		SparseGradient gradient = new SparseGradient();
+		UpdateState state = newUpdateState();
+		double value = 0.0;
+		for (int position = first; position < order.length; position += stride) {
+			int datum = order[position];
+			if (decayPerRate > 0.0) {
+				gradient.clear();
+				function.getIndexes(datum, gradient);
+				for (int num = 0; num < gradient.size(); num++) {
+					catchUp(x, gradient.getIndex(num), position);
+				}
+			}
+			gradient.clear();
+			value += function.calculate(x, datum, gradient);
+			long step = firstStep + position;
+			double learningRate = getLearningRate(step);
+			for (int num = 0; num < gradient.size(); num++) {
+				update(x, gradient.getIndex(num), gradient.getValue(num),
+						learningRate, step, state);
+			}
+		}
+		return value;
+	}
+
+	private static void shuffle(int[] order, Random random) {
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+		}
+	}
+
+	private boolean converged(double value, double nextValue, double tolerance) {
+		if (Double.isNaN(value))
+			return false;
+		if (value == nextValue)
+			return true;
+		double valueChange = SloppyMath.abs(nextValue - value);
+		double valueAverage = SloppyMath.abs(nextValue + value + EPS) / 2.0;
+		return valueChange / valueAverage < tolerance;
+	}
+
+	protected AbstractStochasticMinimizer(
+			LearningRateSchedule learningRateSchedule, int maxPasses) {
+		this.learningRateSchedule = learningRateSchedule;
+		this.maxPasses = maxPasses;
+	}
+}
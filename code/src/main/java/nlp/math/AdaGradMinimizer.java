@@ -0,0 +1,31 @@
+package nlp.math;
+
+/**
+ * AdaGrad: each coordinate's step is scaled by the inverse square root of the
+ * sum of its squared gradients so far, so rarely seen features take larger
+ * steps than frequent ones. Usually run with a constant learning rate.
+ */
+public class AdaGradMinimizer extends AbstractStochasticMinimizer {
+	double epsilon = 1e-8;
+	double[] squaredGradientSums;
+
+	protected void initialize(int dimension) {
+		squaredGradientSums = new double[dimension];
+	}
+
+	protected void update(double[] x, int index, double gradient,
+			double learningRate, long step, UpdateState state) {
+		double sum = squaredGradientSums[index] + gradient * gradient;
+		squaredGradientSums[index] = sum;
+		x[index] -= learningRate * gradient / (Math.sqrt(sum) + epsilon);
+	}
+
+	public AdaGradMinimizer(LearningRateSchedule learningRateSchedule,
+			int maxPasses) {
+		super(learningRateSchedule, maxPasses);
+	}
+
+	public AdaGradMinimizer(int maxPasses) {
+		this(new ConstantSchedule(0.1), maxPasses);
+	}
+}
@@ -0,0 +1,66 @@
+package nlp.math;
+
+/**
+ * Adam: steps along bias-corrected running averages of each coordinate's
+ * gradient, scaled by the running average of its squared gradient. Only the
+ * averages of coordinates with a nonzero gradient are updated (lazy Adam), so
+ * updates stay sparse; the bias correction uses the overall step count.
+ */
+public class AdamMinimizer extends AbstractStochasticMinimizer {
+	double beta1 = 0.9;
+	double beta2 = 0.999;
+	double epsilon = 1e-8;
+	double[] firstMoments;
+	double[] secondMoments;
+
+	/**
+	 * A thread's bias corrections 1 / (1 - beta^(step + 1)) for its
+	 * correctedStep, since every coordinate updated in a step shares them.
+	 */
+	static class AdamState extends UpdateState {
+		long correctedStep = -1;
+		double firstCorrection;
+		double secondCorrection;
+	}
+
+	protected void initialize(int dimension) {
+		firstMoments = new double[dimension];
+		secondMoments = new double[dimension];
+	}
+
+	protected UpdateState newUpdateState() {
+		return new AdamState();
+	}
+
+	protected void update(double[] x, int index, double gradient,
+			double learningRate, long step, UpdateState state) {
+		AdamState adamState = (AdamState) state;
+		double m = beta1 * firstMoments[index] + (1.0 - beta1) * gradient;
+		double v = beta2 * secondMoments[index] + (1.0 - beta2) * gradient
+				* gradient;
+		firstMoments[index] = m;
+		secondMoments[index] = v;
+		if (step != adamState.correctedStep) {
+			adamState.firstCorrection = 1.0 / (1.0 - Math.pow(beta1, step + 1));
+			adamState.secondCorrection = 1.0 / (1.0 - Math.pow(beta2, step + 1));
+			adamState.correctedStep = step;
+		}
+		double mHat = m * adamState.firstCorrection;
+		double vHat = v * adamState.secondCorrection;
+		x[index] -= learningRate * mHat / (Math.sqrt(vHat) + epsilon);
+	}
+
+	public void setBetas(double beta1, double beta2) {
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+	}
+
+	public AdamMinimizer(LearningRateSchedule learningRateSchedule,
+			int maxPasses) {
+		super(learningRateSchedule, maxPasses);
+	}
+
+	public AdamMinimizer(int maxPasses) {
+		this(new ConstantSchedule(0.001), maxPasses);
+	}
+}
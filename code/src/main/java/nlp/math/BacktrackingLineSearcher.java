@@ -9,11 +9,31 @@ public class BacktrackingLineSearcher implements GradientLineSearcher {
 
 	public double[] minimize(DifferentiableFunction function, double[] initial,
 			double[] direction) {
+		double[] guess = new double[initial.length];
+		double stepSize = minimize(function, initial, direction, guess);
+		return (stepSize == 0.0 ? initial : guess);
+	}
+
+	/**
+	 * Like minimize(function, initial, direction), but writes the new point
+	 * into guess, and returns the step size taken. If no step gives
+	 * sufficient decrease, guess is set to initial and the returned step size
+	 * is zero. Each trial point is a new array, since the function may keep
+	 * the points it is given; guess is only written, never evaluated.
+	 */
+	public double minimize(DifferentiableFunction function, double[] initial,
+			double[] direction, double[] guess) {
+		return minimize(function, initial, function.valueAt(initial),
+				function.derivativeAt(initial), direction, guess);
+	}
+
+	public double minimize(DifferentiableFunction function, double[] initial,
+			double initialValue, double[] initialDerivative,
+			double[] direction, double[] guess) {
 		double stepSize = 1.0;
-		double initialFunctionValue = function.valueAt(initial);
+		double initialFunctionValue = initialValue;
 		double initialDirectionalDerivative = DoubleArrays.innerProduct(
-				function.derivativeAt(initial), direction);
-		double[] guess = null;
+				initialDerivative, direction);
 		double guessValue = 0.0;
 		boolean sufficientDecreaseObtained = false;
 		// if (false) {
@@ -32,9 +52,9 @@ public class BacktrackingLineSearcher implements GradientLineSearcher {
 		// }
 		// }
 		while (!sufficientDecreaseObtained) {
-			guess = DoubleArrays
-					.addMultiples(initial, 1.0, direction, stepSize);
-			guessValue = function.valueAt(guess);
+			double[] trial = DoubleArrays.addMultiples(initial, 1.0,
+					direction, stepSize);
+			guessValue = function.valueAt(trial);
 			double sufficientDecreaseValue = initialFunctionValue
 					+ sufficientDecreaseConstant * initialDirectionalDerivative
 					* stepSize;
@@ -43,14 +63,17 @@ public class BacktrackingLineSearcher implements GradientLineSearcher {
 			// System.out.println("Value is:          "+guessValue);
 			// System.out.println("Initial was:       "+initialFunctionValue);
 			sufficientDecreaseObtained = (guessValue <= sufficientDecreaseValue);
-			if (!sufficientDecreaseObtained) {
+			if (sufficientDecreaseObtained) {
+				DoubleArrays.assign(guess, trial);
+			} else {
 				stepSize *= stepSizeMultiplier;
 				if (stepSize < EPS) {
 					// throw new
 					// RuntimeException("BacktrackingSearcher.minimize: stepSize underflow.");
 					System.err
 							.println("BacktrackingSearcher.minimize: stepSize underflow.");
-					return initial;
+					DoubleArrays.assign(guess, initial);
+					return 0.0;
 				}
 			}
 		}
@@ -64,7 +87,7 @@ public class BacktrackingLineSearcher implements GradientLineSearcher {
 		// guessValue = function.valueAt(guess);
 		// }
 		// return lastGuess;
-		return guess;
+		return stepSize;
 	}
 
 	public static void main(String[] args) {
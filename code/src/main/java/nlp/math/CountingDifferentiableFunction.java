@@ -0,0 +1,77 @@
+package nlp.math;
+
+/**
+ * Wraps a DifferentiableFunction and counts how many times its value and
+ * derivative are evaluated. A call at the same point as the previous call of
+ * the same kind is not counted, since objectives that cache their last
+ * evaluation (like DataParallelObjective) answer it without a pass over the
+ * data.
+ */
+public class CountingDifferentiableFunction implements DifferentiableFunction {
+	DifferentiableFunction function;
+	double[] lastValueX;
+	double[] lastDerivativeX;
+	int numValueEvaluations;
+	int numDerivativeEvaluations;
+
+	public int dimension() {
+		return function.dimension();
+	}
+
+	public double valueAt(double[] x) {
+		if (isNewPoint(lastValueX, x)) {
+			numValueEvaluations++;
+			lastValueX = copy(x, lastValueX);
+		}
+		return function.valueAt(x);
+	}
+
+	public double[] derivativeAt(double[] x) {
+		if (isNewPoint(lastDerivativeX, x)) {
+			numDerivativeEvaluations++;
+			lastDerivativeX = copy(x, lastDerivativeX);
+		}
+		return function.derivativeAt(x);
+	}
+
+	private static boolean isNewPoint(double[] lastX, double[] x) {
+		if (lastX == null || lastX.length != x.length)
+			return true;
+		for (int i = 0; i < x.length; i++) {
+			if (lastX[i] != x[i])
+				return true;
+		}
+		return false;
+	}
+
+	private static double[] copy(double[] x, double[] into) {
+		if (into == null || into.length != x.length)
+			into = new double[x.length];
+		System.arraycopy(x, 0, into, 0, x.length);
+		return into;
+	}
+
+	public int getNumValueEvaluations() {
+		return numValueEvaluations;
+	}
+
+	public int getNumDerivativeEvaluations() {
+		return numDerivativeEvaluations;
+	}
+
+	public void resetCounts() {
+		numValueEvaluations = 0;
+		numDerivativeEvaluations = 0;
+		lastValueX = null;
+		lastDerivativeX = null;
+	}
+
+	public String getStatistics() {
+		return numValueEvaluations + " value and " + numDerivativeEvaluations
+				+ " derivative evaluations";
+	}
+
+	public CountingDifferentiableFunction(DifferentiableFunction function) {
+		this.function = function;
+	}
+}
@@ -0,0 +1,211 @@
+package nlp.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A differentiable function which is a sum over data points, plus an optional
+ * penalty term: f(x) = sum_i f_i(x) + penalty(x). Subclasses compute the
+ * value and gradient contribution of a contiguous range of data in
+ * calculate(), and this class does the rest: it splits the data into one
+ * shard per thread, runs the shards on a fork-join pool with a gradient
+ * buffer per shard, and then sums the shard values and gradients in shard
+ * order. Because the reduction order is fixed, the value and gradient at a
+ * given point depend only on the number of threads, not on scheduling.
+ * <p/>
+ * Like most objectives here, the value and derivative at the last point
+ * asked for are cached, so valueAt(x) followed by derivativeAt(x) makes one
+ * pass over the data.
+ */
+public abstract class DataParallelObjective implements DifferentiableFunction {
+	/**
+	 * Gradient blocks smaller than this are summed on one thread.
+	 */
+	private static final int REDUCE_BLOCK_SIZE = 1 << 14;
+
+	int numThreads = 1;
+	ForkJoinPool pool;
+	double[][] shardGradients;
+	double[] shardValues;
+
+	double lastValue;
+	double[] lastDerivative;
+	double[] lastX;
+
+	public abstract int dimension();
+
+	/**
+	 * Number of data points the objective sums over.
+	 */
+	public abstract int getNumData();
+
+	/**
+	 * Adds the gradient of the data points start to end - 1 at x into
+	 * gradient, and returns the sum of their values. Called concurrently for
+	 * disjoint ranges, each with its own gradient buffer; implementations must
+	 * not modify x or shared state.
+	 */
+	protected abstract double calculate(double[] x, int start, int end,
+			double[] gradient);
+
+	/**
+	 * Adds the gradient of the penalty (regularization) term at x into
+	 * gradient, and returns its value. Called once per evaluation, after the
+	 * data terms have been summed. The default is no penalty.
+	 */
+	protected double calculatePenalty(double[] x, double[] gradient) {
+		return 0.0;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException("numThreads must be positive: "
+					+ numThreads);
+		if (numThreads != this.numThreads) {
+			shutdown();
+			shardGradients = null;
+		}
+		this.numThreads = numThreads;
+	}
+
+	public double valueAt(double[] x) {
+		ensureCache(x);
+		return lastValue;
+	}
+
+	public double[] derivativeAt(double[] x) {
+		ensureCache(x);
+		return lastDerivative;
+	}
+
+	/**
+	 * Recomputes the value and derivative if x differs from the last point.
+	 * The last point is copied, since minimizers reuse their arrays; the
+	 * derivative is a new array each time, since they also keep those.
+	 */
+	private void ensureCache(double[] x) {
+		if (!requiresUpdate(lastX, x))
+			return;
+		double[] derivative = new double[x.length];
+		lastValue = calculateAll(x, derivative);
+		lastDerivative = derivative;
+		if (lastX == null || lastX.length != x.length)
+			lastX = new double[x.length];
+		System.arraycopy(x, 0, lastX, 0, x.length);
+	}
+
+	private boolean requiresUpdate(double[] lastX, double[] x) {
+		if (lastX == null || lastX.length != x.length)
+			return true;
+		for (int i = 0; i < x.length; i++) {
+			if (lastX[i] != x[i])
+				return true;
+		}
+		return false;
+	}
+
+	private double calculateAll(double[] x, double[] derivative) {
+		int numData = getNumData();
+		double value;
+		if (numThreads == 1 || numData < 2) {
+			value = calculate(x, 0, numData, derivative);
+		} else {
+			ensureShards(x.length);
+			pool.invoke(new ShardTask(x, 0, numThreads));
+			value = 0.0;
+			for (int shard = 0; shard < numThreads; shard++) {
+				value += shardValues[shard];
+			}
+			pool.invoke(new ReduceTask(derivative, 0, derivative.length));
+		}
+		return value + calculatePenalty(x, derivative);
+	}
+
+	private void ensureShards(int dimension) {
+		if (pool == null)
+			pool = new ForkJoinPool(numThreads);
+		if (shardGradients == null || shardGradients[0].length != dimension) {
+			shardGradients = new double[numThreads][dimension];
+			shardValues = new double[numThreads];
+		}
+	}
+
+	/**
+	 * Computes shards first to end - 1, splitting the range in half until
+	 * there is one shard per task.
+	 */
+	private class ShardTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final double[] x;
+		final int first;
+		final int end;
+
+		protected void compute() {
+			if (end - first > 1) {
+				int middle = (first + end) >>> 1;
+				invokeAll(new ShardTask(x, first, middle), new ShardTask(x,
+						middle, end));
+				return;
+			}
+			int numData = getNumData();
+			int start = (int) ((long) numData * first / numThreads);
+			int stop = (int) ((long) numData * (first + 1) / numThreads);
+			double[] gradient = shardGradients[first];
+			DoubleArrays.initialize(gradient, 0.0);
+			shardValues[first] = calculate(x, start, stop, gradient);
+		}
+
+		ShardTask(double[] x, int first, int end) {
+			this.x = x;
+			this.first = first;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Sums the shard gradients into derivative[start] to derivative[end - 1],
+	 * always adding shards in the same order.
+	 */
+	private class ReduceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final double[] derivative;
+		final int start;
+		final int end;
+
+		protected void compute() {
+			if (end - start > REDUCE_BLOCK_SIZE) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new ReduceTask(derivative, start, middle),
+						new ReduceTask(derivative, middle, end));
+				return;
+			}
+			for (int shard = 0; shard < numThreads; shard++) {
+				double[] gradient = shardGradients[shard];
+				for (int i = start; i < end; i++) {
+					derivative[i] += gradient[i];
+				}
+			}
+		}
+
+		ReduceTask(double[] derivative, int start, int end) {
+			this.derivative = derivative;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Stops the worker threads. They are restarted if the objective is
+	 * evaluated again.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
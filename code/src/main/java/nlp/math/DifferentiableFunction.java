@@ -1,6 +1,11 @@
 package nlp.math;
 
 /**
+ * A function with its gradient. Callers may reuse or overwrite an argument
+ * array once a call has returned, so an implementation that caches results
+ * by point must copy the point rather than keep a reference to it (as
+ * DataParallelObjective does). The minimizers in this package never modify
+ * an array after passing it to the function, but other callers may.
  */
 public interface DifferentiableFunction extends Function {
 	double[] derivativeAt(double[] x);
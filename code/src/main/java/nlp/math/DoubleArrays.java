@@ -1,8 +1,17 @@
 package nlp.math;
 
 import java.util.Arrays;
+import java.util.Random;
+
+import nlp.util.Stopwatch;
 
 /**
+ * Static routines on double[] vectors. Routines that return a new array have
+ * counterparts that write into a destination array (or update one of their
+ * arguments in place) instead, for loops such as L-BFGS iterations that would
+ * otherwise allocate vectors the size of the weights on every call. The
+ * element-wise kernels are unrolled by four, with independent accumulators
+ * for reductions, so that the JIT can pipeline and auto-vectorize them.
  */
 public class DoubleArrays {
 	public static double[] clone(double[] x) {
@@ -19,26 +28,101 @@ public class DoubleArrays {
 	}
 
 	public static double innerProduct(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
-		double result = 0.0;
-		for (int i = 0; i < x.length; i++) {
-			result += x[i] * y[i];
+		checkLengths(x, y);
+		int n = x.length;
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += x[i] * y[i];
+			s1 += x[i + 1] * y[i + 1];
+			s2 += x[i + 2] * y[i + 2];
+			s3 += x[i + 3] * y[i + 3];
 		}
-		return result;
+		for (; i < n; i++) {
+			s0 += x[i] * y[i];
+		}
+		return (s0 + s1) + (s2 + s3);
 	}
 
 	public static double[] addMultiples(double[] x, double xMultiplier,
 			double[] y, double yMuliplier) {
+		double[] z = new double[x.length];
+		addMultiples(x, xMultiplier, y, yMuliplier, z);
+		return z;
+	}
+
+	/**
+	 * z = x * xMultiplier + y * yMultiplier. z may be x or y.
+	 */
+	public static void addMultiples(double[] x, double xMultiplier,
+			double[] y, double yMultiplier, double[] z) {
+		checkLengths(x, y);
+		checkLengths(x, z);
+		int n = z.length;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			z[i] = x[i] * xMultiplier + y[i] * yMultiplier;
+			z[i + 1] = x[i + 1] * xMultiplier + y[i + 1] * yMultiplier;
+			z[i + 2] = x[i + 2] * xMultiplier + y[i + 2] * yMultiplier;
+			z[i + 3] = x[i + 3] * xMultiplier + y[i + 3] * yMultiplier;
+		}
+		for (; i < n; i++) {
+			z[i] = x[i] * xMultiplier + y[i] * yMultiplier;
+		}
+	}
+
+	/**
+	 * x = x * xMultiplier + y * yMultiplier, in place.
+	 */
+	public static void addMultiplesInPlace(double[] x, double xMultiplier,
+			double[] y, double yMultiplier) {
+		addMultiples(x, xMultiplier, y, yMultiplier, x);
+	}
+
+	/**
+	 * y += a * x, in place (the BLAS daxpy).
+	 */
+	public static void axpy(double a, double[] x, double[] y) {
+		checkLengths(x, y);
+		if (a == 0.0)
+			return;
+		int n = y.length;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			y[i] += a * x[i];
+			y[i + 1] += a * x[i + 1];
+			y[i + 2] += a * x[i + 2];
+			y[i + 3] += a * x[i + 3];
+		}
+		for (; i < n; i++) {
+			y[i] += a * x[i];
+		}
+	}
+
+	/**
+	 * y[yOffset + i] += a * x[xOffset + i] for i from 0 to length - 1: axpy
+	 * on slices, e.g. one feature's block of per-label weights.
+	 */
+	public static void axpy(double a, double[] x, int xOffset, double[] y,
+			int yOffset, int length) {
+		if (a == 0.0)
+			return;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			y[yOffset + i] += a * x[xOffset + i];
+			y[yOffset + i + 1] += a * x[xOffset + i + 1];
+			y[yOffset + i + 2] += a * x[xOffset + i + 2];
+			y[yOffset + i + 3] += a * x[xOffset + i + 3];
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += a * x[xOffset + i];
+		}
+	}
+
+	private static void checkLengths(double[] x, double[] y) {
 		if (x.length != y.length)
 			throw new RuntimeException("diff lengths: " + x.length + " "
 					+ y.length);
-		double[] z = new double[x.length];
-		for (int i = 0; i < z.length; i++) {
-			z[i] = x[i] * xMultiplier + y[i] * yMuliplier;
-		}
-		return z;
 	}
 
 	public static double[] constantArray(double c, int length) {
@@ -48,14 +132,28 @@ public class DoubleArrays {
 	}
 
 	public static double[] pointwiseMultiply(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] z = new double[x.length];
-		for (int i = 0; i < z.length; i++) {
+		pointwiseMultiply(x, y, z);
+		return z;
+	}
+
+	/**
+	 * z = x * y element-wise. z may be x or y.
+	 */
+	public static void pointwiseMultiply(double[] x, double[] y, double[] z) {
+		checkLengths(x, y);
+		checkLengths(x, z);
+		int n = z.length;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			z[i] = x[i] * y[i];
+			z[i + 1] = x[i + 1] * y[i + 1];
+			z[i + 2] = x[i + 2] * y[i + 2];
+			z[i + 3] = x[i + 3] * y[i + 3];
+		}
+		for (; i < n; i++) {
 			z[i] = x[i] * y[i];
 		}
-		return z;
 	}
 
 	public static String toString(double[] x) {
@@ -77,21 +175,36 @@ public class DoubleArrays {
 	public static void scale(double[] x, double s) {
 		if (s == 1.0)
 			return;
-		for (int i = 0; i < x.length; i++) {
-			x[i] *= s;
-		}
+		multiply(x, s, x);
 	}
 
 	public static double[] multiply(double[] x, double s) {
 		double[] result = new double[x.length];
+		multiply(x, s, result);
+		return result;
+	}
+
+	/**
+	 * result = x * s. result may be x.
+	 */
+	public static void multiply(double[] x, double s, double[] result) {
+		checkLengths(x, result);
 		if (s == 1.0) {
-			System.arraycopy(x, 0, result, 0, x.length);
-			return result;
+			if (result != x)
+				System.arraycopy(x, 0, result, 0, x.length);
+			return;
 		}
-		for (int i = 0; i < x.length; i++) {
+		int n = x.length;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			result[i] = x[i] * s;
+			result[i + 1] = x[i + 1] * s;
+			result[i + 2] = x[i + 2] * s;
+			result[i + 3] = x[i + 3] * s;
+		}
+		for (; i < n; i++) {
 			result[i] = x[i] * s;
 		}
-		return result;
 	}
 
 	public static int argMax(double[] v) {
@@ -159,11 +272,19 @@ public class DoubleArrays {
 	}
 
 	public static double add(double[] a) {
-		double sum = 0.0;
-		for (int i = 0; i < a.length; i++) {
-			sum += a[i];
+		int n = a.length;
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += a[i];
+			s1 += a[i + 1];
+			s2 += a[i + 2];
+			s3 += a[i + 3];
 		}
-		return sum;
+		for (; i < n; i++) {
+			s0 += a[i];
+		}
+		return (s0 + s1) + (s2 + s3);
 	}
 
 	public static double add(double[] a, int first, int last) {
@@ -183,27 +304,31 @@ public class DoubleArrays {
 	}
 
 	public static double[] add(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] result = new double[x.length];
-		for (int i = 0; i < x.length; i++) {
-			result[i] = x[i] + y[i];
-		}
+		addMultiples(x, 1.0, y, 1.0, result);
 		return result;
 	}
 
+	/**
+	 * result = x + y. result may be x or y.
+	 */
+	public static void add(double[] x, double[] y, double[] result) {
+		addMultiples(x, 1.0, y, 1.0, result);
+	}
+
 	public static double[] subtract(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] result = new double[x.length];
-		for (int i = 0; i < x.length; i++) {
-			result[i] = x[i] - y[i];
-		}
+		addMultiples(x, 1.0, y, -1.0, result);
 		return result;
 	}
 
+	/**
+	 * result = x - y. result may be x or y.
+	 */
+	public static void subtract(double[] x, double[] y, double[] result) {
+		addMultiples(x, 1.0, y, -1.0, result);
+	}
+
 	public static double[] exponentiate(double[] pUnexponentiated) {
 		double[] exponentiated = new double[pUnexponentiated.length];
 		for (int index = 0; index < pUnexponentiated.length; index++) {
@@ -235,4 +360,72 @@ public class DoubleArrays {
 		}
 	}
 
+	/**
+	 * Times the in-place kernels against the allocating ones, on vectors the
+	 * size of a large model's weights.
+	 */
+	public static void main(String[] args) {
+		int dimension = (args.length > 0 ? Integer.parseInt(args[0]) : 2000000);
+		int numReps = 200;
+		Random random = new Random(0);
+		double[] x = new double[dimension];
+		double[] y = new double[dimension];
+		for (int i = 0; i < dimension; i++) {
+			x[i] = random.nextGaussian();
+			y[i] = random.nextGaussian();
+		}
+		double[] z = clone(y);
+
+		// warm up both versions before timing
+		for (int rep = 0; rep < 20; rep++) {
+			z = addMultiples(z, 0.5, x, 0.5);
+			addMultiplesInPlace(z, 0.5, x, 0.5);
+			axpy(1e-3, x, z);
+			innerProduct(x, z);
+		}
+
+		Stopwatch stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			z = addMultiples(z, 0.5, x, 0.5);
+		}
+		stopwatch.stop();
+		System.out.printf("addMultiples (allocating): %.3f sec (%.4f)\n",
+				stopwatch.getLastElapsedTime(), z[0]);
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			addMultiplesInPlace(z, 0.5, x, 0.5);
+		}
+		stopwatch.stop();
+		System.out.printf("addMultiplesInPlace:       %.3f sec (%.4f)\n",
+				stopwatch.getLastElapsedTime(), z[0]);
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			axpy(1e-3, x, z);
+		}
+		stopwatch.stop();
+		System.out.printf("axpy:                      %.3f sec (%.4f)\n",
+				stopwatch.getLastElapsedTime(), z[0]);
+
+		double checksum = 0.0;
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			double result = 0.0;
+			for (int i = 0; i < dimension; i++) {
+				result += x[i] * y[i];
+			}
+			checksum += result;
+		}
+		stopwatch.stop();
+		System.out.printf("innerProduct, simple loop: %.3f sec (%.4f)\n",
+				stopwatch.getLastElapsedTime(), checksum);
+		checksum = 0.0;
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			checksum += innerProduct(x, y);
+		}
+		stopwatch.stop();
+		System.out.printf("innerProduct, unrolled:    %.3f sec (%.4f)\n",
+				stopwatch.getLastElapsedTime(), checksum);
+	}
+
 }
@@ -3,4 +3,14 @@ package nlp.math;
 public interface GradientLineSearcher {
 	public double[] minimize(DifferentiableFunction function, double[] initial,
 			double[] direction);
+
+	/**
+	 * Searches along direction from initial, whose value and derivative the
+	 * caller already has. Writes the point found into guess and returns the
+	 * step size taken, or zero (with guess set to initial) if no acceptable
+	 * step was found.
+	 */
+	public double minimize(DifferentiableFunction function, double[] initial,
+			double initialValue, double[] initialDerivative,
+			double[] direction, double[] guess);
 }
@@ -0,0 +1,203 @@
+package nlp.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The state of an L-BFGS run after some iteration: the guess and the history
+ * of input and derivative differences (newest first), enough for
+ * LBFGSMinimizer.resume() to carry on as if it had not stopped. Checkpoints
+ * are written to a compact binary file: a small header, then the vectors as
+ * raw little-endian doubles, each written through its own memory mapping so
+ * that large vectors go straight to the page cache. Writes go to a temporary
+ * file which then replaces the checkpoint, so a run killed mid-write leaves
+ * the previous checkpoint intact.
+ * <p/>
+ * A checkpoint also carries a fingerprint: an opaque number which the
+ * caller computes from whatever gives the coordinates their meaning (such
+ * as the order of a model's features), so that a later run can refuse to
+ * resume from a checkpoint of a differently laid out problem.
+ */
+public class LBFGSCheckpoint {
+	private static final int MAGIC = 0x4c424653;
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 40;
+
+	int iteration;
+	double value;
+	long fingerprint;
+	double[] guess;
+	double[][] inputDifferences;
+	double[][] derivativeDifferences;
+
+	/**
+	 * The number of iterations completed.
+	 */
+	public int getIteration() {
+		return iteration;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * The fingerprint of the problem the checkpoint was taken from; zero if
+	 * none was given.
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	public double[] getGuess() {
+		return guess;
+	}
+
+	public int getDimension() {
+		return guess.length;
+	}
+
+	public int getHistorySize() {
+		return inputDifferences.length;
+	}
+
+	/**
+	 * Pads the guess and history with zeros up to a larger dimension, for
+	 * resuming on a problem whose new coordinates were appended at the end
+	 * (for instance, a MaxEnt model whose feature Indexer has grown). Zero
+	 * history entries leave the curvature estimates of the old coordinates
+	 * unchanged.
+	 */
+	public void resize(int dimension) {
+		if (dimension < guess.length)
+			throw new IllegalArgumentException("Cannot shrink checkpoint from "
+					+ guess.length + " to " + dimension);
+		guess = pad(guess, dimension);
+		for (int i = 0; i < inputDifferences.length; i++) {
+			inputDifferences[i] = pad(inputDifferences[i], dimension);
+			derivativeDifferences[i] = pad(derivativeDifferences[i], dimension);
+		}
+	}
+
+	private static double[] pad(double[] x, int dimension) {
+		if (x.length == dimension)
+			return x;
+		double[] padded = new double[dimension];
+		System.arraycopy(x, 0, padded, 0, x.length);
+		return padded;
+	}
+
+	public void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			int dimension = guess.length;
+			int historySize = inputDifferences.length;
+			raf.setLength(HEADER_BYTES + 8L * dimension * (1 + 2 * historySize));
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+					ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(dimension)
+					.putInt(iteration).putInt(historySize).putInt(0)
+					.putDouble(value).putLong(fingerprint);
+			header.flip();
+			channel.write(header, 0);
+			long position = HEADER_BYTES;
+			position = writeVector(channel, position, guess);
+			for (int i = 0; i < historySize; i++) {
+				position = writeVector(channel, position, inputDifferences[i]);
+				position = writeVector(channel, position,
+						derivativeDifferences[i]);
+			}
+		} finally {
+			raf.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not replace " + file);
+		}
+	}
+
+	private static long writeVector(FileChannel channel, long position,
+			double[] vector) throws IOException {
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+				position, 8L * vector.length);
+		mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(vector);
+		mapped.force();
+		return position + 8L * vector.length;
+	}
+
+	public static LBFGSCheckpoint read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+					ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0)
+					throw new IOException("Truncated checkpoint: " + file);
+			}
+			if (header.getInt(0) != MAGIC)
+				throw new IOException("Not an L-BFGS checkpoint: " + file);
+			if (header.getInt(4) != VERSION)
+				throw new IOException("Unsupported checkpoint version: "
+						+ header.getInt(4));
+			int dimension = header.getInt(8);
+			int historySize = header.getInt(16);
+			LBFGSCheckpoint checkpoint = new LBFGSCheckpoint();
+			checkpoint.iteration = header.getInt(12);
+			checkpoint.value = header.getDouble(24);
+			checkpoint.fingerprint = header.getLong(32);
+			long position = HEADER_BYTES;
+			checkpoint.guess = readVector(channel, position, dimension);
+			position += 8L * dimension;
+			checkpoint.inputDifferences = new double[historySize][];
+			checkpoint.derivativeDifferences = new double[historySize][];
+			for (int i = 0; i < historySize; i++) {
+				checkpoint.inputDifferences[i] = readVector(channel, position,
+						dimension);
+				position += 8L * dimension;
+				checkpoint.derivativeDifferences[i] = readVector(channel,
+						position, dimension);
+				position += 8L * dimension;
+			}
+			return checkpoint;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static double[] readVector(FileChannel channel, long position,
+			int dimension) throws IOException {
+		DoubleBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+				position, 8L * dimension).order(ByteOrder.LITTLE_ENDIAN)
+				.asDoubleBuffer();
+		double[] vector = new double[dimension];
+		mapped.get(vector);
+		return vector;
+	}
+
+	LBFGSCheckpoint() {
+	}
+
+	/**
+	 * A checkpoint of the given state. The arrays are not copied.
+	 */
+	public LBFGSCheckpoint(int iteration, double value, long fingerprint,
+			double[] guess, double[][] inputDifferences,
+			double[][] derivativeDifferences) {
+		this.iteration = iteration;
+		this.value = value;
+		this.fingerprint = fingerprint;
+		this.guess = guess;
+		this.inputDifferences = inputDifferences;
+		this.derivativeDifferences = derivativeDifferences;
+	}
+}
@@ -1,20 +1,69 @@
 package nlp.math;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.LinkedList;
 
+/**
+ * Limited-memory BFGS. The last maxHistorySize input and derivative
+ * differences are kept in a preallocated circular buffer, and the search
+ * direction is computed by the two-loop recursion in place, with the initial
+ * inverse Hessian taken as a scalar multiple of the identity. Apart from what
+ * the function itself allocates in derivativeAt(), an iteration allocates
+ * nothing.
+ * <p/>
+ * Each iteration's step is chosen by a backtracking line search (the
+ * default) or a strong Wolfe line search, which usually needs fewer
+ * evaluations of the function. The numbers of value and derivative
+ * evaluations made by the last call to minimize() are available afterwards.
+ * <p/>
+ * Given a checkpoint file, the minimizer saves its guess and history there
+ * every few iterations (see LBFGSCheckpoint), and resume() picks a run back
+ * up from such a checkpoint.
+ */
 public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 	private static final long serialVersionUID = 36473897808840226L;
 	double EPS = 1e-10;
 	int maxIterations = 20;
 	int maxHistorySize = 5;
-	LinkedList<double[]> inputDifferenceVectorList = new LinkedList<double[]>();
-	LinkedList<double[]> derivativeDifferenceVectorList = new LinkedList<double[]>();
+	/**
+	 * Circular buffers of the last historySize input and derivative
+	 * differences; the newest is at historyStart, the one before that at
+	 * historyStart + 1 (mod maxHistorySize), and so on. rho[k] caches the
+	 * inner product of the k'th pair.
+	 */
+	double[][] inputDifferences;
+	double[][] derivativeDifferences;
+	double[] rho;
+	int historyStart;
+	int historySize;
+	/**
+	 * Scratch space for the two-loop recursion.
+	 */
+	transient double[] alpha;
 	transient IterationCallbackFunction iterCallbackFunction = null;
 	int minIterations = -1;
 	double initialStepSizeMultiplier = 0.01;
 	double stepSizeMultiplier = 0.5;
+	LineSearch lineSearch = LineSearch.BACKTRACKING;
+	int numValueEvaluations;
+	int numDerivativeEvaluations;
+	transient File checkpointFile;
+	int checkpointInterval;
+	long checkpointFingerprint;
+	/**
+	 * The iteration to number the first one from; non-zero when resuming.
+	 */
+	int firstIteration;
 
+	public static enum LineSearch {
+		BACKTRACKING, STRONG_WOLFE
+	}
+
+	/**
+	 * Called after each iteration. curGuess is one of the minimizer's
+	 * buffers, which later iterations overwrite, so copy it to keep it.
+	 */
 	public static interface IterationCallbackFunction {
 		public void iterationDone(double[] curGuess, int iter);
 	}
@@ -40,28 +89,154 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 		return minimize(function, initial, tolerance, true);
 	}
 
+	public void setLineSearch(LineSearch lineSearch) {
+		this.lineSearch = lineSearch;
+	}
+
+	/**
+	 * Saves a checkpoint to the given file after every interval iterations.
+	 * A null file turns checkpointing off.
+	 */
+	public void setCheckpointFile(File checkpointFile, int interval) {
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = interval;
+	}
+
+	/**
+	 * The fingerprint stored in the checkpoints written from now on (see
+	 * LBFGSCheckpoint).
+	 */
+	public void setCheckpointFingerprint(long fingerprint) {
+		this.checkpointFingerprint = fingerprint;
+	}
+
+	/**
+	 * Continues the run saved in the checkpoint, keeping its history and
+	 * iteration count (so maxIterations counts iterations before the
+	 * checkpoint too). If the function's dimension has grown since, the
+	 * checkpoint is padded with zeros (see LBFGSCheckpoint.resize()). The
+	 * minimizer cannot tell whether the coordinates still mean what they
+	 * did; callers should check the checkpoint's fingerprint first.
+	 */
+	public double[] resume(DifferentiableFunction function,
+			LBFGSCheckpoint checkpoint, double tolerance, boolean printProgress) {
+		if (checkpoint.getDimension() < function.dimension())
+			checkpoint.resize(function.dimension());
+		restoreHistory(checkpoint);
+		firstIteration = checkpoint.getIteration();
+		try {
+			return minimize(function, checkpoint.getGuess(), tolerance,
+					printProgress);
+		} finally {
+			firstIteration = 0;
+		}
+	}
+
+	private void restoreHistory(LBFGSCheckpoint checkpoint) {
+		inputDifferences = null;
+		ensureHistory(checkpoint.getDimension());
+		historySize = Math.min(maxHistorySize, checkpoint.getHistorySize());
+		for (int i = 0; i < historySize; i++) {
+			DoubleArrays.assign(inputDifferences[i],
+					checkpoint.inputDifferences[i]);
+			DoubleArrays.assign(derivativeDifferences[i],
+					checkpoint.derivativeDifferences[i]);
+			rho[i] = DoubleArrays.innerProduct(inputDifferences[i],
+					derivativeDifferences[i]);
+		}
+	}
+
+	/**
+	 * The current state as a checkpoint, sharing the history buffers.
+	 */
+	LBFGSCheckpoint getCheckpoint(int iteration, double value, double[] guess) {
+		double[][] inputs = new double[historySize][];
+		double[][] derivatives = new double[historySize][];
+		for (int i = 0; i < historySize; i++) {
+			inputs[i] = inputDifferences[slot(i)];
+			derivatives[i] = derivativeDifferences[slot(i)];
+		}
+		return new LBFGSCheckpoint(iteration, value, checkpointFingerprint,
+				guess, inputs, derivatives);
+	}
+
+	/**
+	 * Writes a checkpoint if one is due after the given number of completed
+	 * iterations. A failed write is reported but does not stop the run.
+	 */
+	void maybeCheckpoint(int completedIterations, double value, double[] guess) {
+		if (checkpointFile == null || checkpointInterval <= 0
+				|| completedIterations % checkpointInterval != 0)
+			return;
+		try {
+			getCheckpoint(completedIterations, value, guess).write(
+					checkpointFile);
+		} catch (IOException e) {
+			System.err.println(getClass().getSimpleName()
+					+ ": could not write checkpoint: " + e);
+		}
+	}
+
+	public int getNumValueEvaluations() {
+		return numValueEvaluations;
+	}
+
+	public int getNumDerivativeEvaluations() {
+		return numDerivativeEvaluations;
+	}
+
 	public double[] minimize(DifferentiableFunction function, double[] initial,
 			double tolerance, boolean printProgress) {
-		BacktrackingLineSearcher lineSearcher = new BacktrackingLineSearcher();
+		CountingDifferentiableFunction countingFunction = new CountingDifferentiableFunction(
+				function);
+		try {
+			return minimizeCounted(countingFunction, initial, tolerance,
+					printProgress);
+		} finally {
+			numValueEvaluations = countingFunction.getNumValueEvaluations();
+			numDerivativeEvaluations = countingFunction
+					.getNumDerivativeEvaluations();
+			if (printProgress) {
+				System.out.printf("[%s.minimize] Used %s\n", getClass()
+						.getSimpleName(), countingFunction.getStatistics());
+			}
+		}
+	}
+
+	double[] minimizeCounted(CountingDifferentiableFunction function,
+			double[] initial, double tolerance, boolean printProgress) {
+		ensureHistory(function.dimension());
+		BacktrackingLineSearcher backtrackingLineSearcher = new BacktrackingLineSearcher();
+		StrongWolfeLineSearcher strongWolfeLineSearcher = new StrongWolfeLineSearcher();
+		GradientLineSearcher lineSearcher = backtrackingLineSearcher;
+		if (lineSearch == LineSearch.STRONG_WOLFE)
+			lineSearcher = strongWolfeLineSearcher;
 		double[] guess = DoubleArrays.clone(initial);
-		for (int iteration = 0; iteration < maxIterations; iteration++) {
-			double value = function.valueAt(guess);
-			double[] derivative = function.derivativeAt(guess);
-			double[] initialInverseHessianDiagonal = getInitialInverseHessianDiagonal(function);
-			double[] direction = implicitMultiply(
-					initialInverseHessianDiagonal, derivative);
-			// System.out.println(" Derivative is: "+DoubleArrays.toString(derivative,
-			// 100));
-			// DoubleArrays.assign(direction, derivative);
+		double[] direction = new double[guess.length];
+		double value = function.valueAt(guess);
+		double[] derivative = function.derivativeAt(guess);
+		for (int iteration = firstIteration; iteration < maxIterations; iteration++) {
+			implicitMultiply(derivative, direction);
 			DoubleArrays.scale(direction, -1.0);
-			// System.out.println(" Looking in direction: "+DoubleArrays.toString(direction,
-			// 100));
 			if (iteration == 0)
-				lineSearcher.stepSizeMultiplier = initialStepSizeMultiplier;
+				backtrackingLineSearcher.stepSizeMultiplier = initialStepSizeMultiplier;
 			else
-				lineSearcher.stepSizeMultiplier = stepSizeMultiplier;
-			double[] nextGuess = lineSearcher.minimize(function, guess,
-					direction);
+				backtrackingLineSearcher.stepSizeMultiplier = stepSizeMultiplier;
+			double directionLength = Math.sqrt(DoubleArrays.innerProduct(
+					direction, direction));
+			if (historySize == 0 && directionLength > 0.0) {
+				// without history the direction is the raw gradient, so try
+				// a step of unit length
+				strongWolfeLineSearcher
+						.setInitialStepSize(1.0 / directionLength);
+			} else {
+				strongWolfeLineSearcher.setInitialStepSize(1.0);
+			}
+			// a new array each time: the function may keep the points it has
+			// been given (see DifferentiableFunction)
+			double[] nextGuess = new double[guess.length];
+			lineSearcher.minimize(function, guess, value, derivative,
+					direction, nextGuess);
 			double nextValue = function.valueAt(nextGuess);
 			double[] nextDerivative = function.derivativeAt(nextGuess);
 			if (printProgress) {
@@ -77,6 +252,7 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 			guess = nextGuess;
 			value = nextValue;
 			derivative = nextDerivative;
+			maybeCheckpoint(iteration + 1, value, guess);
 			if (iterCallbackFunction != null) {
 				iterCallbackFunction.iterationDone(guess, iteration);
 			}
@@ -85,7 +261,7 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 		return guess;
 	}
 
-	private boolean converged(double value, double nextValue, double tolerance) {
+	boolean converged(double value, double nextValue, double tolerance) {
 		if (value == nextValue)
 			return true;
 		double valueChange = SloppyMath.abs(nextValue - value);
@@ -95,92 +271,89 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 		return false;
 	}
 
-	private void updateHistories(double[] guess, double[] nextGuess,
-			double[] derivative, double[] nextDerivative) {
-		double[] guessChange = DoubleArrays.addMultiples(nextGuess, 1.0, guess,
-				-1.0);
-		double[] derivativeChange = DoubleArrays.addMultiples(nextDerivative,
-				1.0, derivative, -1.0);
-		pushOntoList(guessChange, inputDifferenceVectorList);
-		pushOntoList(derivativeChange, derivativeDifferenceVectorList);
+	/**
+	 * Allocates the history buffers, unless they already fit this dimension
+	 * and history size (in which case any history from a previous call to
+	 * minimize() is kept).
+	 */
+	void ensureHistory(int dimension) {
+		alpha = new double[maxHistorySize];
+		if (inputDifferences != null
+				&& inputDifferences.length == maxHistorySize
+				&& inputDifferences[0].length == dimension)
+			return;
+		inputDifferences = new double[maxHistorySize][dimension];
+		derivativeDifferences = new double[maxHistorySize][dimension];
+		rho = new double[maxHistorySize];
+		historyStart = 0;
+		historySize = 0;
 	}
 
-	private void pushOntoList(double[] vector, LinkedList<double[]> vectorList) {
-		vectorList.addFirst(vector);
-		if (vectorList.size() > maxHistorySize)
-			vectorList.removeLast();
+	/**
+	 * Overwrites the oldest history slot (or takes a free one) with the new
+	 * differences, which become the newest.
+	 */
+	void updateHistories(double[] guess, double[] nextGuess,
+			double[] derivative, double[] nextDerivative) {
+		historyStart = (historyStart + maxHistorySize - 1) % maxHistorySize;
+		if (historySize < maxHistorySize)
+			historySize++;
+		double[] guessChange = inputDifferences[historyStart];
+		double[] derivativeChange = derivativeDifferences[historyStart];
+		DoubleArrays.subtract(nextGuess, guess, guessChange);
+		DoubleArrays.subtract(nextDerivative, derivative, derivativeChange);
+		rho[historyStart] = DoubleArrays.innerProduct(guessChange,
+				derivativeChange);
 	}
 
-	private int historySize() {
-		return inputDifferenceVectorList.size();
+	/**
+	 * The buffer slot of the num'th most recent history entry.
+	 */
+	private int slot(int num) {
+		// 0 is previous, 1 is the one before that
+		return (historyStart + num) % maxHistorySize;
 	}
 
 	public void setMaxHistorySize(int maxHistorySize) {
 		this.maxHistorySize = maxHistorySize;
 	}
 
-	private double[] getInputDifference(int num) {
-		// 0 is previous, 1 is the one before that
-		return inputDifferenceVectorList.get(num);
-	}
-
-	private double[] getDerivativeDifference(int num) {
-		return derivativeDifferenceVectorList.get(num);
-	}
-
-	private double[] getLastDerivativeDifference() {
-		return derivativeDifferenceVectorList.getFirst();
-	}
-
-	private double[] getLastInputDifference() {
-		return inputDifferenceVectorList.getFirst();
-	}
-
-	private double[] implicitMultiply(double[] initialInverseHessianDiagonal,
-			double[] derivative) {
-		double[] rho = new double[historySize()];
-		double[] alpha = new double[historySize()];
-		double[] right = DoubleArrays.clone(derivative);
-		// loop last backward
-		for (int i = historySize() - 1; i >= 0; i--) {
-			double[] inputDifference = getInputDifference(i);
-			double[] derivativeDifference = getDerivativeDifference(i);
-			rho[i] = DoubleArrays.innerProduct(inputDifference,
-					derivativeDifference);
-			if (rho[i] == 0.0)
+	/**
+	 * Sets direction to the product of the implicit inverse Hessian and the
+	 * derivative: the standard two-loop recursion, newest to oldest and back,
+	 * updating direction in place.
+	 */
+	void implicitMultiply(double[] derivative, double[] direction) {
+		DoubleArrays.assign(direction, derivative);
+		for (int i = 0; i < historySize; i++) {
+			int k = slot(i);
+			if (rho[k] == 0.0)
 				throw new RuntimeException(
 						"LBFGSMinimizer.implicitMultiply: Curvature problem.");
-			alpha[i] = DoubleArrays.innerProduct(inputDifference, right)
-					/ rho[i];
-			right = DoubleArrays.addMultiples(right, 1.0, derivativeDifference,
-					-1.0 * alpha[i]);
-		}
-		double[] left = DoubleArrays.pointwiseMultiply(
-				initialInverseHessianDiagonal, right);
-		for (int i = 0; i < historySize(); i++) {
-			double[] inputDifference = getInputDifference(i);
-			double[] derivativeDifference = getDerivativeDifference(i);
-			double beta = DoubleArrays.innerProduct(derivativeDifference, left)
-					/ rho[i];
-			left = DoubleArrays.addMultiples(left, 1.0, inputDifference,
-					alpha[i] - beta);
+			alpha[i] = DoubleArrays.innerProduct(inputDifferences[k],
+					direction) / rho[k];
+			DoubleArrays.axpy(-alpha[i], derivativeDifferences[k], direction);
 		}
-		return left;
-	}
-
-	private double[] getInitialInverseHessianDiagonal(
-			DifferentiableFunction function) {
-		double scale = 1.0;
-		if (derivativeDifferenceVectorList.size() >= 1) {
-			double[] lastDerivativeDifference = getLastDerivativeDifference();
-			double[] lastInputDifference = getLastInputDifference();
-			double num = DoubleArrays.innerProduct(lastDerivativeDifference,
-					lastInputDifference);
-			double den = DoubleArrays.innerProduct(lastDerivativeDifference,
-					lastDerivativeDifference);
-			scale = num / den;
+		DoubleArrays.scale(direction, getInitialInverseHessianScale());
+		for (int i = historySize - 1; i >= 0; i--) {
+			int k = slot(i);
+			double beta = DoubleArrays.innerProduct(derivativeDifferences[k],
+					direction) / rho[k];
+			DoubleArrays.axpy(alpha[i] - beta, inputDifferences[k], direction);
 		}
-		return DoubleArrays.constantArray(scale, function.dimension());
+	}
+
+	/**
+	 * The initial inverse Hessian is this scalar times the identity: s'y / y'y
+	 * for the newest differences s and y, or one before there are any.
+	 */
+	private double getInitialInverseHessianScale() {
+		if (historySize == 0)
+			return 1.0;
+		double[] lastDerivativeDifference = derivativeDifferences[historyStart];
+		return rho[historyStart]
+				/ DoubleArrays.innerProduct(lastDerivativeDifference,
+						lastDerivativeDifference);
 	}
 
 	public void setIterationCallbackFunction(
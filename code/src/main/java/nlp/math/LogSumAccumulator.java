@@ -0,0 +1,75 @@
+package nlp.math;
+
+/**
+ * Accumulates log(exp(x1) + exp(x2) + ...) one term at a time, for sums
+ * whose terms are not all at hand in one array (as in forward-backward or
+ * inside-outside, where they come from different cells of a chart). It keeps
+ * the largest term seen so far and the sum of the others relative to it, so
+ * each term costs one SloppyMath.fastExp (two when it becomes the new
+ * largest) and nothing overflows. Accumulators can be merged, so threads can
+ * sum parts of a large sum separately.
+ */
+public class LogSumAccumulator {
+	private double max = Double.NEGATIVE_INFINITY;
+	/**
+	 * The sum of exp(x - max) over the terms x so far.
+	 */
+	private double sum = 0.0;
+
+	public void add(double logX) {
+		if (logX == Double.NEGATIVE_INFINITY)
+			return;
+		if (logX == max) {
+			sum += 1.0;
+		} else if (logX < max) {
+			sum += SloppyMath.fastExp(logX - max);
+		} else {
+			if (max != Double.NEGATIVE_INFINITY)
+				sum *= SloppyMath.fastExp(max - logX);
+			sum += 1.0;
+			max = logX;
+		}
+	}
+
+	/**
+	 * Adds the terms v[from], ..., v[to - 1].
+	 */
+	public void add(double[] v, int from, int to) {
+		for (int i = from; i < to; i++) {
+			add(v[i]);
+		}
+	}
+
+	/**
+	 * Adds the terms accumulated by another accumulator.
+	 */
+	public void add(LogSumAccumulator other) {
+		if (other.sum == 0.0)
+			return;
+		if (other.max == max) {
+			sum += other.sum;
+		} else if (other.max < max) {
+			sum += other.sum * SloppyMath.fastExp(other.max - max);
+		} else {
+			if (max != Double.NEGATIVE_INFINITY)
+				sum *= SloppyMath.fastExp(max - other.max);
+			sum += other.sum;
+			max = other.max;
+		}
+	}
+
+	/**
+	 * The log of the sum of the exponentiated terms added so far; negative
+	 * infinity if there were none.
+	 */
+	public double getLogSum() {
+		if (sum == 0.0)
+			return Double.NEGATIVE_INFINITY;
+		return max + SloppyMath.fastLog(sum);
+	}
+
+	public void clear() {
+		max = Double.NEGATIVE_INFINITY;
+		sum = 0.0;
+	}
+}
@@ -0,0 +1,172 @@
+package nlp.math;
+
+/**
+ * Orthant-wise limited-memory quasi-Newton (OWL-QN, Andrew and Gao 2007):
+ * minimizes f(x) + l1Weight * |x|_1 for a differentiable f, which may itself
+ * include an L2 penalty (giving the elastic net). The L1 term is not
+ * differentiable at zero, so each iteration works within one orthant: the
+ * search direction comes from the L-BFGS history applied to the
+ * pseudo-gradient (the minimum-norm subgradient), coordinates whose direction
+ * disagrees with it are zeroed, and line search points are projected back
+ * onto the orthant, so coordinates that would cross zero stop at zero. Many
+ * weights end up exactly zero.
+ */
+public class OWLQNMinimizer extends LBFGSMinimizer {
+	private static final long serialVersionUID = 1L;
+	double l1Weight;
+	double sufficientDecreaseConstant = 1e-4;
+	double backtrackMultiplier = 0.5;
+	int maxLineSearchEvaluations = 30;
+
+	public void setL1Weight(double l1Weight) {
+		this.l1Weight = l1Weight;
+	}
+
+	public double getL1Weight() {
+		return l1Weight;
+	}
+
+	double[] minimizeCounted(CountingDifferentiableFunction function,
+			double[] initial, double tolerance, boolean printProgress) {
+		ensureHistory(function.dimension());
+		double[] guess = DoubleArrays.clone(initial);
+		double[] direction = new double[guess.length];
+		double[] pseudoGradient = new double[guess.length];
+		double[] derivative = function.derivativeAt(guess);
+		double value = function.valueAt(guess) + l1Norm(guess);
+		for (int iteration = firstIteration; iteration < maxIterations; iteration++) {
+			computePseudoGradient(guess, derivative, pseudoGradient);
+			implicitMultiply(pseudoGradient, direction);
+			DoubleArrays.scale(direction, -1.0);
+			constrainDirection(direction, pseudoGradient);
+			double initialStepSize = 1.0;
+			if (historySize == 0) {
+				double directionLength = Math.sqrt(DoubleArrays.innerProduct(
+						direction, direction));
+				if (directionLength > 0.0)
+					initialStepSize = 1.0 / directionLength;
+			}
+			double[] nextGuess = new double[guess.length];
+			double nextValue = lineSearch(function, guess, value,
+					pseudoGradient, direction, initialStepSize, nextGuess);
+			double[] nextDerivative = function.derivativeAt(nextGuess);
+			if (printProgress) {
+				System.out.printf(
+						"[OWLQNMinimizer.minimize] Iteration %d ended with value %.6f (%d nonzero)\n",
+						iteration, nextValue, countNonZero(nextGuess));
+			}
+			if (iteration >= minIterations
+					&& converged(value, nextValue, tolerance))
+				return nextGuess;
+			updateHistories(guess, nextGuess, derivative, nextDerivative);
+			guess = nextGuess;
+			value = nextValue;
+			derivative = nextDerivative;
+			maybeCheckpoint(iteration + 1, value, guess);
+			if (iterCallbackFunction != null) {
+				iterCallbackFunction.iterationDone(guess, iteration);
+			}
+		}
+		return guess;
+	}
+
+	/**
+	 * The steepest-descent subgradient of f + l1Weight * |x|_1: the gradient
+	 * plus l1Weight times the sign of each nonzero coordinate, and for zero
+	 * coordinates whichever one-sided derivative points downhill, or zero if
+	 * neither does.
+	 */
+	private void computePseudoGradient(double[] x, double[] derivative,
+			double[] pseudoGradient) {
+		for (int i = 0; i < x.length; i++) {
+			double g = derivative[i];
+			if (x[i] > 0.0) {
+				pseudoGradient[i] = g + l1Weight;
+			} else if (x[i] < 0.0) {
+				pseudoGradient[i] = g - l1Weight;
+			} else if (g + l1Weight < 0.0) {
+				pseudoGradient[i] = g + l1Weight;
+			} else if (g - l1Weight > 0.0) {
+				pseudoGradient[i] = g - l1Weight;
+			} else {
+				pseudoGradient[i] = 0.0;
+			}
+		}
+	}
+
+	/**
+	 * Zeroes direction coordinates that do not point against the
+	 * pseudo-gradient.
+	 */
+	private static void constrainDirection(double[] direction,
+			double[] pseudoGradient) {
+		for (int i = 0; i < direction.length; i++) {
+			if (direction[i] * pseudoGradient[i] >= 0.0)
+				direction[i] = 0.0;
+		}
+	}
+
+	/**
+	 * Backtracks from initialStepSize until the projected point gives
+	 * sufficient decrease of f + l1Weight * |x|_1, and returns that value. The
+	 * orthant is that of guess, or for zero coordinates the one the
+	 * pseudo-gradient points into. Each trial point is a new array, since
+	 * the function may keep the points it is given.
+	 */
+	private double lineSearch(DifferentiableFunction function, double[] guess,
+			double value, double[] pseudoGradient, double[] direction,
+			double initialStepSize, double[] nextGuess) {
+		double stepSize = initialStepSize;
+		for (int evaluation = 0; evaluation < maxLineSearchEvaluations; evaluation++) {
+			double[] trial = new double[guess.length];
+			double decrease = 0.0;
+			for (int i = 0; i < guess.length; i++) {
+				double orthant = guess[i];
+				if (orthant == 0.0)
+					orthant = -pseudoGradient[i];
+				double x = guess[i] + stepSize * direction[i];
+				if (x * orthant <= 0.0)
+					x = 0.0;
+				trial[i] = x;
+				decrease += pseudoGradient[i] * (x - guess[i]);
+			}
+			double nextValue = function.valueAt(trial) + l1Norm(trial);
+			if (nextValue <= value + sufficientDecreaseConstant * decrease) {
+				DoubleArrays.assign(nextGuess, trial);
+				return nextValue;
+			}
+			stepSize *= backtrackMultiplier;
+		}
+		System.err.println("OWLQNMinimizer.lineSearch: stepSize underflow.");
+		DoubleArrays.assign(nextGuess, guess);
+		return value;
+	}
+
+	private double l1Norm(double[] x) {
+		if (l1Weight == 0.0)
+			return 0.0;
+		double norm = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			norm += Math.abs(x[i]);
+		}
+		return l1Weight * norm;
+	}
+
+	private static int countNonZero(double[] x) {
+		int count = 0;
+		for (int i = 0; i < x.length; i++) {
+			if (x[i] != 0.0)
+				count++;
+		}
+		return count;
+	}
+
+	public OWLQNMinimizer(double l1Weight) {
+		this.l1Weight = l1Weight;
+	}
+
+	public OWLQNMinimizer(double l1Weight, int maxIterations) {
+		super(maxIterations);
+		this.l1Weight = l1Weight;
+	}
+}
@@ -0,0 +1,28 @@
+package nlp.math;
+
+/**
+ * Plain stochastic gradient descent: x -= rate * gradient.
+ */
+public class SGDMinimizer extends AbstractStochasticMinimizer {
+
+	protected void initialize(int dimension) {
+	}
+
+	protected void update(double[] x, int index, double gradient,
+			double learningRate, long step, UpdateState state) {
+		x[index] -= learningRate * gradient;
+	}
+
+	public SGDMinimizer(LearningRateSchedule learningRateSchedule,
+			int maxPasses) {
+		super(learningRateSchedule, maxPasses);
+	}
+
+	/**
+	 * Learning rate 0.1, halved after the first 100,000 updates, a third after
+	 * 200,000, and so on.
+	 */
+	public SGDMinimizer(int maxPasses) {
+		this(new InverseTimeSchedule(0.1, 1e5), maxPasses);
+	}
+}
@@ -1,12 +1,60 @@
 package nlp.math;
 
 import java.lang.Math;
+import java.util.Random;
+
+import nlp.util.Stopwatch;
 
 /**
  * Routines for some approximate math functions.
+ * <p/>
+ * fastExp and fastLog are table-driven: exp splits its argument into a
+ * multiple of ln(2)/64, looked up in a table of powers of two, and a small
+ * remainder handled by a short polynomial; log looks up the top bits of the
+ * mantissa and handles the rest the same way. Over the normal range both are
+ * within a few units in the last place of Math.exp and Math.log (relative
+ * error below 1e-15 for exp, absolute error below 1e-15 for log of numbers
+ * between 1e-300 and 1e300); outside it they fall back to Math. Run main()
+ * to check the error bounds and timings on this machine.
  */
 public class SloppyMath {
 
+	private static final int EXP_TABLE_BITS = 6;
+	private static final int EXP_TABLE_SIZE = 1 << EXP_TABLE_BITS;
+	/**
+	 * ln(2) split so that LN2_HI has its low 32 bits zero, making n * LN2_HI
+	 * exact for the n that come up here.
+	 */
+	private static final double LN2_HI = 6.93147180369123816490e-01;
+	private static final double LN2_LO = 1.90821492927058770002e-10;
+	private static final double EXP_TABLE_SIZE_OVER_LN2 = EXP_TABLE_SIZE
+			/ Math.log(2.0);
+	/**
+	 * EXP_TABLE[j] = 2^(j / 64).
+	 */
+	private static final double[] EXP_TABLE = new double[EXP_TABLE_SIZE];
+
+	private static final int LOG_TABLE_BITS = 7;
+	private static final int LOG_TABLE_SIZE = 1 << LOG_TABLE_BITS;
+	private static final long MANTISSA_MASK = 0x000fffffffffffffL;
+	private static final long ONE_BITS = Double.doubleToRawLongBits(1.0);
+	/**
+	 * For mantissas m whose top bits are j, LOG_INVERSE[j] is close to 1 / m
+	 * and LOG_TABLE[j] is -log(LOG_INVERSE[j]).
+	 */
+	private static final double[] LOG_INVERSE = new double[LOG_TABLE_SIZE];
+	private static final double[] LOG_TABLE = new double[LOG_TABLE_SIZE];
+
+	static {
+		for (int j = 0; j < EXP_TABLE_SIZE; j++) {
+			EXP_TABLE[j] = Math.pow(2.0, (double) j / EXP_TABLE_SIZE);
+		}
+		for (int j = 0; j < LOG_TABLE_SIZE; j++) {
+			LOG_INVERSE[j] = 1.0 / (1.0 + (j + 0.5) / LOG_TABLE_SIZE);
+			LOG_TABLE[j] = -Math.log(LOG_INVERSE[j]);
+		}
+	}
+
 	public static double min(int x, int y) {
 		if (x > y)
 			return y;
@@ -52,40 +100,199 @@ public class SloppyMath {
 		if (negDiff < -20) {
 			return logX;
 		}
-		return logX + java.lang.Math.log(1.0 + java.lang.Math.exp(negDiff));
+		return logX + fastLog(1.0 + fastExp(negDiff));
 	}
 
 	public static double logAdd(double[] logV) {
+		return logSumExp(logV, 0, logV.length);
+	}
+
+	/**
+	 * log(exp(v[from]) + ... + exp(v[to - 1])), computed relative to the
+	 * largest element so that nothing overflows. Negative infinity if the
+	 * slice is empty or all its elements are.
+	 */
+	public static double logSumExp(double[] v, int from, int to) {
 		double max = Double.NEGATIVE_INFINITY;
-		double maxIndex = 0;
-		for (int i = 0; i < logV.length; i++) {
-			if (logV[i] > max) {
-				max = logV[i];
-				maxIndex = i;
-			}
+		for (int i = from; i < to; i++) {
+			if (v[i] > max)
+				max = v[i];
 		}
-		if (max == Double.NEGATIVE_INFINITY)
-			return Double.NEGATIVE_INFINITY;
-		// compute the negative difference
-		double threshold = max - 20;
-		double sumNegativeDifferences = 0.0;
-		for (int i = 0; i < logV.length; i++) {
-			if (i != maxIndex && logV[i] > threshold) {
-				sumNegativeDifferences += Math.exp(logV[i] - max);
-			}
-		}
-		if (sumNegativeDifferences > 0.0) {
-			return max + Math.log(1.0 + sumNegativeDifferences);
-		} else {
+		if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY)
 			return max;
+		double sum0 = 0.0, sum1 = 0.0;
+		int i = from;
+		for (; i + 1 < to; i += 2) {
+			sum0 += fastExp(v[i] - max);
+			sum1 += fastExp(v[i + 1] - max);
 		}
+		if (i < to)
+			sum0 += fastExp(v[i] - max);
+		return max + fastLog(sum0 + sum1);
 	}
 
 	public static double exp(double logX) {
 		// if x is very near one, use the linear approximation
 		if (abs(logX) < 0.001)
 			return 1 + logX;
-		return Math.exp(logX);
+		return fastExp(logX);
+	}
+
+	/**
+	 * exp(x), to within a few units in the last place; see the class comment.
+	 */
+	public static double fastExp(double x) {
+		if (!(x > -708.0) || x > 709.0) {
+			// NaN, infinities, overflow and subnormal results
+			return Math.exp(x);
+		}
+		int n = (int) Math.rint(x * EXP_TABLE_SIZE_OVER_LN2);
+		double r = (x - n * (LN2_HI / EXP_TABLE_SIZE)) - n
+				* (LN2_LO / EXP_TABLE_SIZE);
+		// exp(r) for |r| <= ln(2) / 128; the next term is below 4e-17
+		double p = 1.0 + r
+				* (1.0 + r
+						* (1.0 / 2 + r
+								* (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120)))));
+		double scale = Double.longBitsToDouble((long) ((n >> EXP_TABLE_BITS) + 1023) << 52);
+		return scale * (EXP_TABLE[n & (EXP_TABLE_SIZE - 1)] * p);
+	}
+
+	/**
+	 * log(x), to within a few units in the last place of the result's
+	 * magnitude (or of 1, near x = 1); see the class comment.
+	 */
+	public static double fastLog(double x) {
+		if (!(x >= Double.MIN_NORMAL) || x == Double.POSITIVE_INFINITY) {
+			// NaN, zero, negatives, infinity and subnormals
+			return Math.log(x);
+		}
+		long bits = Double.doubleToRawLongBits(x);
+		int exponent = (int) (bits >>> 52) - 1023;
+		int j = (int) (bits >>> (52 - LOG_TABLE_BITS)) & (LOG_TABLE_SIZE - 1);
+		double mantissa = Double.longBitsToDouble((bits & MANTISSA_MASK)
+				| ONE_BITS);
+		double u = mantissa * LOG_INVERSE[j] - 1.0;
+		// log(1 + u) for |u| <= 1/256; the next term is below 2e-18
+		double p = u
+				* (1.0 - u
+						* (1.0 / 2 - u
+								* (1.0 / 3 - u
+										* (1.0 / 4 - u * (1.0 / 5 - u * (1.0 / 6))))));
+		return exponent * LN2_HI + (exponent * LN2_LO + LOG_TABLE[j] + p);
+	}
+
+	public static void main(String[] args) {
+		int size = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+		int numReps = 20;
+		Random random = new Random(0);
+		double[] x = new double[size];
+		double[] positive = new double[size];
+		for (int i = 0; i < size; i++) {
+			x[i] = 1400.0 * random.nextDouble() - 700.0;
+			positive[i] = Math.exp(1380.0 * random.nextDouble() - 690.0);
+		}
+
+		double maxExpError = 0.0;
+		double maxLogError = 0.0;
+		for (int i = 0; i < size; i++) {
+			double exact = Math.exp(x[i]);
+			maxExpError = Math.max(maxExpError, Math.abs(fastExp(x[i]) - exact)
+					/ exact);
+			maxLogError = Math.max(maxLogError, Math.abs(fastLog(positive[i])
+					- Math.log(positive[i])));
+		}
+		double maxSmallExpError = 0.0;
+		double maxNearOneLogError = 0.0;
+		for (int i = 0; i < size; i++) {
+			double small = -20.0 * random.nextDouble();
+			maxSmallExpError = Math.max(maxSmallExpError, Math.abs(fastExp(small)
+					- Math.exp(small))
+					/ Math.exp(small));
+			double nearOne = 0.5 + random.nextDouble();
+			maxNearOneLogError = Math.max(maxNearOneLogError, Math
+					.abs(fastLog(nearOne) - Math.log(nearOne)));
+		}
+		System.out.printf("fastExp max relative error: %.3g on [-700, 700], %.3g on [-20, 0]\n",
+				maxExpError, maxSmallExpError);
+		System.out.printf("fastLog max absolute error: %.3g on [1e-300, 1e300], %.3g on [0.5, 1.5]\n",
+				maxLogError, maxNearOneLogError);
+
+		double checksum = 0.0;
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int i = 0; i < size; i++) {
+				checksum += Math.exp(x[i]) + fastExp(x[i]) + Math.log(positive[i])
+						+ fastLog(positive[i]);
+			}
+		}
+		Stopwatch stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int i = 0; i < size; i++) {
+				checksum += Math.exp(x[i]);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("Math.exp:  %.3f sec\n", stopwatch.getLastElapsedTime());
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int i = 0; i < size; i++) {
+				checksum += fastExp(x[i]);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("fastExp:   %.3f sec\n", stopwatch.getLastElapsedTime());
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int i = 0; i < size; i++) {
+				checksum += Math.log(positive[i]);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("Math.log:  %.3f sec\n", stopwatch.getLastElapsedTime());
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int i = 0; i < size; i++) {
+				checksum += fastLog(positive[i]);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("fastLog:   %.3f sec\n", stopwatch.getLastElapsedTime());
+
+		// log-sums over slices of 45 (the size of the POS tag set)
+		int sliceSize = 45;
+		for (int i = 0; i < size; i++) {
+			x[i] = 10.0 * random.nextGaussian();
+		}
+		checksum = 0.0;
+		for (int from = 0; from + sliceSize <= size; from += sliceSize) {
+			checksum -= logSumExp(x, from, from + sliceSize);
+		}
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int from = 0; from + sliceSize <= size; from += sliceSize) {
+				double max = Double.NEGATIVE_INFINITY;
+				for (int i = from; i < from + sliceSize; i++) {
+					max = Math.max(max, x[i]);
+				}
+				double sum = 0.0;
+				for (int i = from; i < from + sliceSize; i++) {
+					sum += Math.exp(x[i] - max);
+				}
+				checksum += max + Math.log(sum);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("log-sum with Math.exp: %.3f sec\n", stopwatch
+				.getLastElapsedTime());
+		stopwatch = new Stopwatch();
+		for (int rep = 0; rep < numReps; rep++) {
+			for (int from = 0; from + sliceSize <= size; from += sliceSize) {
+				checksum += logSumExp(x, from, from + sliceSize);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("logSumExp:             %.3f sec (%.4g)\n", stopwatch
+				.getLastElapsedTime(), checksum);
 	}
 
 }
@@ -0,0 +1,53 @@
+package nlp.math;
+
+/**
+ * The gradient of a single datum's term of an objective, as parallel arrays
+ * of indexes and values which grow as entries are added. Stochastic
+ * minimizers reuse one SparseGradient per thread, clearing it before each
+ * datum, so computing a per-datum gradient allocates nothing once the arrays
+ * have grown to fit. Indexes should be distinct.
+ */
+public class SparseGradient {
+	int[] indexes;
+	double[] values;
+	int size;
+
+	public void add(int index, double value) {
+		if (size == indexes.length) {
+			int[] newIndexes = new int[2 * size];
+			double[] newValues = new double[2 * size];
+			System.arraycopy(indexes, 0, newIndexes, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			indexes = newIndexes;
+			values = newValues;
+		}
+		indexes[size] = index;
+		values[size] = value;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getIndex(int num) {
+		return indexes[num];
+	}
+
+	public double getValue(int num) {
+		return values[num];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public SparseGradient() {
+		this(16);
+	}
+
+	public SparseGradient(int capacity) {
+		indexes = new int[Math.max(capacity, 1)];
+		values = new double[Math.max(capacity, 1)];
+	}
+}
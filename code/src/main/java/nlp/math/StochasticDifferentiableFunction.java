@@ -0,0 +1,34 @@
+package nlp.math;
+
+/**
+ * A function which is a sum of one term per datum plus an L2 penalty,
+ * f(x) = sum_i f_i(x) + (c / 2) * |x|^2, exposed one datum at a time for
+ * stochastic minimizers.
+ */
+public interface StochasticDifferentiableFunction {
+	int dimension();
+
+	int getNumData();
+
+	/**
+	 * Adds the gradient of datum's term f_i at x to gradient (which the
+	 * caller has cleared) and returns f_i(x). May be called concurrently from
+	 * several threads, each with its own gradient.
+	 */
+	double calculate(double[] x, int datum, SparseGradient gradient);
+
+	/**
+	 * Adds to indexes (which the caller has cleared), with value zero, every
+	 * coordinate that datum's term depends on, i.e. every coordinate whose
+	 * gradient calculate() may fill in. Lets a minimizer bring exactly those
+	 * coordinates up to date before the term is evaluated.
+	 */
+	void getIndexes(int datum, SparseGradient indexes);
+
+	/**
+	 * The coefficient c of the L2 penalty, or zero for none. Minimizers apply
+	 * the penalty themselves, so that it does not make sparse gradients
+	 * dense.
+	 */
+	double getL2Weight();
+}
@@ -0,0 +1,74 @@
+package nlp.math;
+
+/**
+ * Minimizes a StochasticDifferentiableFunction by making passes over its
+ * data in random order, updating the guess after each datum. The counterpart
+ * of GradientMinimizer for objectives with many data, where a few stochastic
+ * passes get as far as many full-gradient iterations.
+ */
+public interface StochasticMinimizer {
+	/**
+	 * Runs passes until the objective (as summed during a pass) changes by
+	 * less than tolerance, relatively, or the maximum number of passes is
+	 * reached.
+	 */
+	double[] minimize(StochasticDifferentiableFunction function,
+			double[] initial, double tolerance);
+
+	/**
+	 * A learning rate for each update, numbered from zero across passes.
+	 */
+	public static interface LearningRateSchedule {
+		double getLearningRate(long step);
+	}
+
+	public static class ConstantSchedule implements LearningRateSchedule {
+		double learningRate;
+
+		public double getLearningRate(long step) {
+			return learningRate;
+		}
+
+		public ConstantSchedule(double learningRate) {
+			this.learningRate = learningRate;
+		}
+	}
+
+	/**
+	 * learningRate / (1 + step / halfLife): halves after halfLife updates.
+	 */
+	public static class InverseTimeSchedule implements LearningRateSchedule {
+		double learningRate;
+		double halfLife;
+
+		public double getLearningRate(long step) {
+			return learningRate / (1.0 + step / halfLife);
+		}
+
+		public InverseTimeSchedule(double learningRate, double halfLife) {
+			this.learningRate = learningRate;
+			this.halfLife = halfLife;
+		}
+	}
+
+	/**
+	 * learningRate * decay^(step / stepsPerPass): decays by a constant factor
+	 * per pass over the data.
+	 */
+	public static class ExponentialSchedule implements LearningRateSchedule {
+		double learningRate;
+		double decay;
+		double stepsPerPass;
+
+		public double getLearningRate(long step) {
+			return learningRate * Math.pow(decay, step / stepsPerPass);
+		}
+
+		public ExponentialSchedule(double learningRate, double decay,
+				int stepsPerPass) {
+			this.learningRate = learningRate;
+			this.decay = decay;
+			this.stepsPerPass = stepsPerPass;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package nlp.math;
+
+/**
+ * A line search for a step satisfying the strong Wolfe conditions: sufficient
+ * decrease, f(x + a d) <= f(x) + c1 a f'(x; d), and curvature, |f'(x + a d;
+ * d)| <= c2 |f'(x; d)|. Trial steps grow until they bracket such a step, then
+ * the bracket is narrowed by cubic interpolation of the values and
+ * directional derivatives at its ends (Nocedal and Wright, Algorithms 3.5 and
+ * 3.6). With quasi-Newton directions the first trial step is usually
+ * accepted, so an L-BFGS iteration typically costs one evaluation of value
+ * and gradient together; every trial computes both, which for objectives
+ * that cache them (see DataParallelObjective) is one pass over the data.
+ */
+public class StrongWolfeLineSearcher implements GradientLineSearcher {
+	double sufficientDecreaseConstant = 1e-4;
+	double curvatureConstant = 0.9;
+	double initialStepSize = 1.0;
+	int maxEvaluations = 20;
+
+	public void setInitialStepSize(double initialStepSize) {
+		this.initialStepSize = initialStepSize;
+	}
+
+	/**
+	 * c1 and c2 in the class comment; 1e-4 and 0.9 by default, the usual
+	 * choice for quasi-Newton methods.
+	 */
+	public void setConstants(double sufficientDecreaseConstant,
+			double curvatureConstant) {
+		this.sufficientDecreaseConstant = sufficientDecreaseConstant;
+		this.curvatureConstant = curvatureConstant;
+	}
+
+	public void setMaxEvaluations(int maxEvaluations) {
+		this.maxEvaluations = maxEvaluations;
+	}
+
+	public double[] minimize(DifferentiableFunction function, double[] initial,
+			double[] direction) {
+		double[] guess = new double[initial.length];
+		double stepSize = minimize(function, initial, function
+				.valueAt(initial), function.derivativeAt(initial), direction,
+				guess);
+		return (stepSize == 0.0 ? initial : guess);
+	}
+
+	public double minimize(DifferentiableFunction function, double[] initial,
+			double initialValue, double[] initialDerivative,
+			double[] direction, double[] guess) {
+		double slope0 = DoubleArrays.innerProduct(initialDerivative, direction);
+		if (slope0 >= 0.0) {
+			System.err
+					.println("StrongWolfeLineSearcher.minimize: not a descent direction.");
+			DoubleArrays.assign(guess, initial);
+			return 0.0;
+		}
+		Trial previous = new Trial(0.0, initialValue, slope0);
+		Trial best = previous;
+		double stepSize = initialStepSize;
+		int evaluations = 0;
+		while (evaluations < maxEvaluations) {
+			Trial trial = evaluate(function, initial, direction, stepSize,
+					guess);
+			evaluations++;
+			if (!sufficientDecrease(trial, initialValue, slope0)
+					|| (evaluations > 1 && trial.value >= previous.value))
+				return zoom(function, initial, direction, guess, previous,
+						trial, initialValue, slope0, evaluations, best);
+			best = trial;
+			if (curvatureHolds(trial, slope0))
+				return trial.stepSize;
+			if (trial.slope >= 0.0)
+				return zoom(function, initial, direction, guess, trial,
+						previous, initialValue, slope0, evaluations, best);
+			previous = trial;
+			stepSize = 2.0 * stepSize;
+		}
+		return finish(initial, direction, guess, best);
+	}
+
+	/**
+	 * Narrows the bracket between lo (which satisfies sufficient decrease and
+	 * has the lowest value so far) and hi until a trial satisfies both
+	 * conditions.
+	 */
+	private double zoom(DifferentiableFunction function, double[] initial,
+			double[] direction, double[] guess, Trial lo, Trial hi,
+			double initialValue, double slope0, int evaluations, Trial best) {
+		while (evaluations < maxEvaluations) {
+			double stepSize = interpolate(lo, hi);
+			Trial trial = evaluate(function, initial, direction, stepSize,
+					guess);
+			evaluations++;
+			if (!sufficientDecrease(trial, initialValue, slope0)
+					|| trial.value >= lo.value) {
+				hi = trial;
+			} else {
+				best = trial;
+				if (curvatureHolds(trial, slope0))
+					return trial.stepSize;
+				if (trial.slope * (hi.stepSize - lo.stepSize) >= 0.0)
+					hi = lo;
+				lo = trial;
+			}
+			if (Math.abs(hi.stepSize - lo.stepSize) < 1e-12 * lo.stepSize)
+				break;
+		}
+		return finish(initial, direction, guess, best);
+	}
+
+	/**
+	 * Out of evaluations: settles for the best step with sufficient decrease,
+	 * if there was one.
+	 */
+	private double finish(double[] initial, double[] direction,
+			double[] guess, Trial best) {
+		if (best.stepSize == 0.0) {
+			System.err
+					.println("StrongWolfeLineSearcher.minimize: no step with sufficient decrease.");
+			DoubleArrays.assign(guess, initial);
+			return 0.0;
+		}
+		DoubleArrays.addMultiples(initial, 1.0, direction, best.stepSize,
+				guess);
+		return best.stepSize;
+	}
+
+	private boolean sufficientDecrease(Trial trial, double initialValue,
+			double slope0) {
+		return trial.value <= initialValue + sufficientDecreaseConstant
+				* trial.stepSize * slope0;
+	}
+
+	private boolean curvatureHolds(Trial trial, double slope0) {
+		return Math.abs(trial.slope) <= -curvatureConstant * slope0;
+	}
+
+	/**
+	 * Evaluates the step at a new array (the function may keep the points it
+	 * is given), which is copied into guess.
+	 */
+	private Trial evaluate(DifferentiableFunction function, double[] initial,
+			double[] direction, double stepSize, double[] guess) {
+		double[] trial = DoubleArrays.addMultiples(initial, 1.0, direction,
+				stepSize);
+		double value = function.valueAt(trial);
+		double slope = DoubleArrays.innerProduct(function.derivativeAt(trial),
+				direction);
+		DoubleArrays.assign(guess, trial);
+		return new Trial(stepSize, value, slope);
+	}
+
+	/**
+	 * The minimizer of the cubic through the values and slopes at a and b,
+	 * kept at least a tenth of the interval away from either end; bisection
+	 * if the cubic has no minimum there.
+	 */
+	static double interpolate(Trial a, Trial b) {
+		double low = Math.min(a.stepSize, b.stepSize);
+		double high = Math.max(a.stepSize, b.stepSize);
+		double margin = 0.1 * (high - low);
+		double d1 = a.slope + b.slope - 3.0 * (a.value - b.value)
+				/ (a.stepSize - b.stepSize);
+		double radicand = d1 * d1 - a.slope * b.slope;
+		double stepSize = 0.5 * (low + high);
+		if (radicand >= 0.0 && !Double.isInfinite(b.value)
+				&& !Double.isNaN(b.value)) {
+			double d2 = Math.signum(b.stepSize - a.stepSize)
+					* Math.sqrt(radicand);
+			double denominator = b.slope - a.slope + 2.0 * d2;
+			if (denominator != 0.0) {
+				double cubic = b.stepSize - (b.stepSize - a.stepSize)
+						* (b.slope + d2 - d1) / denominator;
+				if (!Double.isNaN(cubic))
+					stepSize = cubic;
+			}
+		}
+		return Math.max(low + margin, Math.min(high - margin, stepSize));
+	}
+
+	/**
+	 * A step size with the value and directional derivative there.
+	 */
+	static class Trial {
+		final double stepSize;
+		final double value;
+		final double slope;
+
+		Trial(double stepSize, double value, double slope) {
+			this.stepSize = stepSize;
+			this.value = value;
+			this.slope = slope;
+		}
+	}
+
+	public static void main(String[] args) {
+		DifferentiableFunction function = new DifferentiableFunction() {
+			public int dimension() {
+				return 1;
+			}
+
+			public double valueAt(double[] x) {
+				return x[0] * (x[0] - 0.01);
+			}
+
+			public double[] derivativeAt(double[] x) {
+				return new double[] { 2 * x[0] - 0.01 };
+			}
+		};
+		CountingDifferentiableFunction counted = new CountingDifferentiableFunction(
+				function);
+		double[] guess = new double[1];
+		double stepSize = new StrongWolfeLineSearcher().minimize(counted,
+				new double[] { 0 }, 0.0, new double[] { -0.01 },
+				new double[] { 1 }, guess);
+		System.out.println("step " + stepSize + " to " + guess[0] + " with "
+				+ counted.getStatistics());
+	}
+}
@@ -31,6 +31,14 @@ public class BoundedList<E> extends AbstractList<E> {
 		return list.size();
 	}
 
+	/**
+	 * Points this list at a different underlying list, keeping the boundary
+	 * objects, so that one BoundedList can be reused across many sentences.
+	 */
+	public void setList(List<E> list) {
+		this.list = list;
+	}
+
 	public BoundedList(List<E> list, E leftBoundary, E rightBoundary) {
 		this.list = list;
 		this.leftBoundary = leftBoundary;
@@ -0,0 +1,181 @@
+package nlp.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe version of Indexer, for building feature indexes from several
+ * threads at once. Lookups (indexOf, contains, and addAndGetIndex of an object
+ * already present) never lock. Insertions of new objects lock one of a fixed
+ * set of stripes chosen by the object's hash, so threads adding different
+ * objects rarely contend. Indexes are contiguous and, once handed out, never
+ * change; which object gets which index depends on thread timing, though.
+ * <p/>
+ * When indexing is done, freeze() gives a read-only Indexer whose reverse
+ * lookup is a plain array.
+ */
+public class ConcurrentIndexer<E> extends AbstractList<E> implements
+		Serializable {
+	private static final long serialVersionUID = -8769544079136550517L;
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int NUM_STRIPES = 64;
+
+	ConcurrentHashMap<E, Integer> indexes;
+	/**
+	 * The reverse lookup, as fixed-size chunks so that growing it never moves
+	 * objects that other threads may be reading.
+	 */
+	volatile Object[][] chunks;
+	AtomicInteger size;
+	/**
+	 * Insertion locks; not serialized, but rebuilt when read.
+	 */
+	transient Object[] stripes;
+
+	/**
+	 * Return the object with the given index. Any index returned by
+	 * addAndGetIndex() or indexOf() is safe to look up from any thread.
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if (index < 0 || index >= size.get())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size.get());
+		return (E) chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+	}
+
+	/**
+	 * Returns the number of objects indexed.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the index of the given object, or -1 if the object is not present
+	 * in the indexer.
+	 */
+	public int indexOf(Object o) {
+		if (o == null)
+			return -1;
+		Integer index = indexes.get(o);
+		if (index == null)
+			return -1;
+		return index;
+	}
+
+	/**
+	 * Constant time override for contains.
+	 */
+	public boolean contains(Object o) {
+		if (o == null)
+			return false;
+		return indexes.containsKey(o);
+	}
+
+	/**
+	 * Add an element to the indexer if not already present. In either case,
+	 * returns the index of the given object.
+	 */
+	public int addAndGetIndex(E e) {
+		Integer index = indexes.get(e);
+		if (index != null)
+			return index;
+		int inserted = insertIfAbsent(e);
+		return (inserted >= 0 ? inserted : -inserted - 1);
+	}
+
+	/**
+	 * Add an element to the indexer. If the element is already in the indexer,
+	 * the indexer is unchanged (and false is returned).
+	 */
+	public boolean add(E e) {
+		if (contains(e))
+			return false;
+		return insertIfAbsent(e) >= 0;
+	}
+
+	/**
+	 * Returns the new index of e if this call added it, or -1 minus its
+	 * existing index if some thread already had.
+	 */
+	private int insertIfAbsent(E e) {
+		synchronized (stripes[(e.hashCode() & 0x7fffffff) % NUM_STRIPES]) {
+			Integer index = indexes.get(e);
+			if (index != null)
+				return -index - 1;
+			int newIndex = size.getAndIncrement();
+			ensureChunk(newIndex >>> CHUNK_BITS)[newIndex & (CHUNK_SIZE - 1)] = e;
+			indexes.put(e, newIndex);
+			return newIndex;
+		}
+	}
+
+	private Object[] ensureChunk(int chunkIndex) {
+		Object[][] current = chunks;
+		if (chunkIndex < current.length && current[chunkIndex] != null)
+			return current[chunkIndex];
+		synchronized (this) {
+			current = chunks;
+			if (chunkIndex >= current.length) {
+				current = Arrays.copyOf(current,
+						Math.max(chunkIndex + 1, 2 * current.length));
+			}
+			if (current[chunkIndex] == null) {
+				current[chunkIndex] = new Object[CHUNK_SIZE];
+			}
+			chunks = current;
+			return current[chunkIndex];
+		}
+	}
+
+	/**
+	 * Returns a read-only Indexer with the same contents as this one, backed
+	 * by an array for get() and by a plain HashMap copy of this indexer's map
+	 * for indexOf() (so that, as in any Indexer, looking up null gives -1).
+	 * Must only be called once all threads adding to this indexer are done. Adding to the
+	 * frozen indexer throws an UnsupportedOperationException.
+	 */
+	@SuppressWarnings("unchecked")
+	public Indexer<E> freeze() {
+		int n = size();
+		Object[] objects = new Object[n];
+		for (int chunk = 0; chunk * CHUNK_SIZE < n; chunk++) {
+			System.arraycopy(chunks[chunk], 0, objects, chunk * CHUNK_SIZE,
+					Math.min(CHUNK_SIZE, n - chunk * CHUNK_SIZE));
+		}
+		List<E> objectList = Collections.unmodifiableList(Arrays
+				.asList((E[]) objects));
+		return new Indexer<E>(objectList, new HashMap<E, Integer>(indexes));
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		stripes = newStripes();
+	}
+
+	private static Object[] newStripes() {
+		Object[] stripes = new Object[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+		return stripes;
+	}
+
+	public ConcurrentIndexer() {
+		indexes = new ConcurrentHashMap<E, Integer>();
+		chunks = new Object[16][];
+		size = new AtomicInteger(0);
+		stripes = newStripes();
+	}
+}
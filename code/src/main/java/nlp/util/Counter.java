@@ -167,10 +167,7 @@ public class Counter<E> implements Serializable {
 	 * Destructively normalize this Counter in place.
 	 */
 	public void normalize() {
-		double totalCount = totalCount();
-		for (E key : keySet()) {
-			setCount(key, getCount(key) / totalCount);
-		}
+		scale(1.0 / totalCount());
 	}
 
 	public void normalizeKatz(int K, CounterMap.logLinearModel lm, Counter<E> counterPrevious) {
@@ -302,8 +299,9 @@ public class Counter<E> implements Serializable {
 	 * Destructively scale this Counter in place.
 	 */
 	public void scale(double scaleFactor) {
-		for (E key : keySet()) {
-			setCount(key, getCount(key) * scaleFactor);
+		currentModCount++;
+		for (Map.Entry<E, Double> entry : entries.entrySet()) {
+			entry.setValue(entry.getValue() * scaleFactor);
 		}
 	}
 
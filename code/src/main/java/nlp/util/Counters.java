@@ -28,6 +28,18 @@ public class Counters {
 		return normalizedCounterMap;
 	}
 
+	/**
+	 * Normalizes every sub-counter of the counter map in place, instead of
+	 * building a new CounterMap as conditionalNormalize does.
+	 */
+	public static <K, V> void conditionalNormalizeInPlace(
+			CounterMap<K, V> counterMap) {
+		for (K key : counterMap.keySet()) {
+			counterMap.getCounter(key).normalize();
+		}
+		counterMap.currentModCount++;
+	}
+
 	public static <E> String toBiggestValuesFirstString(Counter<E> c) {
 		return c.asPriorityQueue().toString();
 	}
@@ -53,6 +65,8 @@ public class Counters {
 	}
 
 	/**
+	 * For many divergences over the same counters, convert them once with
+	 * SparseVector.fromCounter and use SparseVector.jensenShannonDivergence.
 	 * 
 	 * @param <E>
 	 * @param x
@@ -83,7 +97,10 @@ public class Counters {
 	/**
 	 * Simple sparse dot product method. Try to put the sparser
 	 * <code>Counter</code> as the <code>x</code> parameter since we iterate
-	 * over those keys and search for them in the <code>y</code> parameter.
+	 * over those keys and search for them in the <code>y</code> parameter. For
+	 * many dot products over the same counters, convert them once with
+	 * SparseVector.fromCounter and use SparseVector.dotProduct, which merges
+	 * sorted index arrays instead.
 	 * 
 	 * @param x
 	 * @param y
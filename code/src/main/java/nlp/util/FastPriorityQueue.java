@@ -8,7 +8,8 @@ import java.util.NoSuchElementException;
  * not efficiently support containsKey or getPriority. Removal is not supported.
  * If you set the priority of a key multiple times, it will NOT be promoted or
  * demoted, but rather it will be inserted in the queue once multiple times,
- * with the various priorities.
+ * with the various priorities. Use IndexedPriorityQueue if keys need to be
+ * looked up, promoted, demoted or removed.
  */
 public class FastPriorityQueue<E> implements PriorityQueue<E>, Serializable {
 	private static final long serialVersionUID = 5724671156522771658L;
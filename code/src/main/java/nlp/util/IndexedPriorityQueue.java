@@ -0,0 +1,306 @@
+package nlp.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A priority queue based on an indexed binary heap. Unlike FastPriorityQueue,
+ * each key is in the queue at most once, and the heap location of every key is
+ * tracked, so containsKey and getPriority are constant time, while promotion,
+ * demotion (setPriority) and removeKey are O(log n). Unlike
+ * GeneralPriorityQueue, no Entry object is built per key: each key is given a
+ * dense integer id, and the heap over those ids is an IntDoublePriorityQueue.
+ */
+public class IndexedPriorityQueue<E> implements PriorityQueue<E>, Serializable {
+	private static final long serialVersionUID = 5724671156522771659L;
+	/**
+	 * The heap over key ids.
+	 */
+	IntDoublePriorityQueue queue;
+	/**
+	 * <code>keys[id]</code> is the key with the given id.
+	 */
+	Object[] keys;
+	/**
+	 * Ids released by removals, handed out again before new ones are minted.
+	 */
+	int[] freeIds;
+	int numFreeIds;
+	int numIds;
+	Map<E, Integer> ids;
+
+	public boolean containsKey(E key) {
+		return ids.containsKey(key);
+	}
+
+	/**
+	 * Get the priority of a key -- if the key is not in the queue,
+	 * Double.NEGATIVE_INFINITY is returned.
+	 */
+	public double getPriority(E key) {
+		Integer id = ids.get(key);
+		if (id == null)
+			return Double.NEGATIVE_INFINITY;
+		return queue.getPriority(id);
+	}
+
+	/**
+	 * Removes a key from the queue, returning its priority, or
+	 * Double.NEGATIVE_INFINITY if the key was not in the queue.
+	 */
+	public double removeKey(E key) {
+		Integer id = ids.remove(key);
+		if (id == null)
+			return Double.NEGATIVE_INFINITY;
+		releaseId(id);
+		return queue.removeKey(id);
+	}
+
+	/**
+	 * Changes a priority, either up or down, adding the key if it wasn't there
+	 * already.
+	 */
+	public void setPriority(E key, double priority) {
+		queue.setPriority(getOrMakeId(key), priority);
+	}
+
+	/**
+	 * Promotes a key in the queue, adding it if it wasn't there already. If the
+	 * specified priority is worse than the current priority, nothing happens.
+	 *
+	 * @return whether the priority actually improved.
+	 */
+	public boolean relaxPriority(E key, double priority) {
+		return queue.relaxPriority(getOrMakeId(key), priority);
+	}
+
+	/**
+	 * Demotes a key in the queue, adding it if it wasn't there already. If the
+	 * specified priority is better than the current priority, nothing happens.
+	 *
+	 * @return whether the priority actually got worse.
+	 */
+	public boolean decreasePriority(E key, double priority) {
+		return queue.decreasePriority(getOrMakeId(key), priority);
+	}
+
+	private int getOrMakeId(E key) {
+		Integer id = ids.get(key);
+		if (id != null)
+			return id;
+		if (numIds == keys.length && numFreeIds == 0) {
+			grow(2 * keys.length + 1);
+		}
+		int newId = (numFreeIds > 0 ? freeIds[--numFreeIds] : numIds++);
+		ids.put(key, newId);
+		keys[newId] = key;
+		return newId;
+	}
+
+	private void releaseId(int id) {
+		keys[id] = null;
+		freeIds[numFreeIds++] = id;
+	}
+
+	protected void grow(int newCapacity) {
+		keys = Arrays.copyOf(keys, newCapacity);
+		freeIds = Arrays.copyOf(freeIds, newCapacity);
+		queue.ensureCapacity(newCapacity);
+	}
+
+	/**
+	 * Finds the object with the highest priority, removes it, and returns it.
+	 */
+	@SuppressWarnings("unchecked")
+	public E removeFirst() {
+		int id = queue.removeFirst();
+		E first = (E) keys[id];
+		ids.remove(first);
+		releaseId(id);
+		return first;
+	}
+
+	/**
+	 * Returns the highest-priority element in the queue, but does not pop it.
+	 */
+	@SuppressWarnings("unchecked")
+	public E getFirst() {
+		return (E) keys[queue.getFirst()];
+	}
+
+	/**
+	 * Gets the priority of the highest-priority element of the queue.
+	 */
+	public double getPriority() {
+		return queue.getPriority();
+	}
+
+	/**
+	 * Returns true if the priority queue is non-empty
+	 */
+	public boolean hasNext() {
+		return !isEmpty();
+	}
+
+	/**
+	 * Returns the element in the queue with highest priority, and pops it from
+	 * the queue.
+	 */
+	public E next() {
+		return removeFirst();
+	}
+
+	/**
+	 * Not supported -- next() already removes the head of the queue.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	/**
+	 * Clears the queue, keeping its allocated capacity.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0, numIds, null);
+		ids.clear();
+		queue.clear();
+		numIds = 0;
+		numFreeIds = 0;
+	}
+
+	/**
+	 * Returns a representation of the queue in decreasing priority order.
+	 */
+	public String toString() {
+		return toString(size());
+	}
+
+	/**
+	 * Returns a representation of the queue in decreasing priority order,
+	 * displaying at most maxKeysToPrint elements.
+	 */
+	public String toString(int maxKeysToPrint) {
+		PriorityQueue<E> pq = deepCopy();
+		StringBuilder sb = new StringBuilder("[");
+		int numKeysPrinted = 0;
+		while (numKeysPrinted < maxKeysToPrint && !pq.isEmpty()) {
+			double priority = pq.getPriority();
+			E element = pq.removeFirst();
+			sb.append(element.toString());
+			sb.append(" : ");
+			sb.append(priority);
+			if (numKeysPrinted < size() - 1)
+				sb.append(", ");
+			numKeysPrinted++;
+		}
+		if (numKeysPrinted < size())
+			sb.append("...");
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a clone of this priority queue. Modifications to one will not
+	 * affect modifications to the other.
+	 */
+	@SuppressWarnings("unchecked")
+	public IndexedPriorityQueue<E> deepCopy() {
+		IndexedPriorityQueue<E> clonePQ = new IndexedPriorityQueue<E>(0);
+		clonePQ.queue = queue.deepCopy();
+		clonePQ.keys = keys.clone();
+		clonePQ.freeIds = freeIds.clone();
+		clonePQ.numFreeIds = numFreeIds;
+		clonePQ.numIds = numIds;
+		clonePQ.ids = new HashMap<E, Integer>(ids);
+		return clonePQ;
+	}
+
+	public IndexedPriorityQueue() {
+		this(15);
+	}
+
+	public IndexedPriorityQueue(int capacity) {
+		ids = new HashMap<E, Integer>();
+		queue = new IntDoublePriorityQueue(capacity);
+		keys = new Object[capacity];
+		freeIds = new int[capacity];
+	}
+
+	/**
+	 * Runs a random agenda workload (insertions, promotions, demotions,
+	 * membership tests, removals and pops) through the given queue and reports
+	 * the time it takes.
+	 */
+	private static double benchmark(PriorityQueue<Integer> pq, int numKeys,
+			int numOperations, long seed) {
+		Random random = new Random(seed);
+		double checksum = 0.0;
+		Stopwatch stopwatch = new Stopwatch();
+		for (int op = 0; op < numOperations; op++) {
+			Integer key = random.nextInt(numKeys);
+			int action = random.nextInt(8);
+			if (action < 4) {
+				pq.setPriority(key, random.nextDouble());
+			} else if (action < 6) {
+				if (pq.containsKey(key))
+					checksum += pq.getPriority(key);
+			} else if (action < 7) {
+				pq.removeKey(key);
+			} else if (!pq.isEmpty()) {
+				checksum += pq.getPriority();
+				pq.removeFirst();
+			}
+		}
+		while (!pq.isEmpty()) {
+			checksum += pq.getPriority();
+			pq.removeFirst();
+		}
+		stopwatch.stop();
+		System.out.printf("  %-24s %8.3f sec (checksum %.4f)\n", pq
+				.getClass().getSimpleName(), stopwatch.getLastElapsedTime(),
+				checksum);
+		return checksum;
+	}
+
+	public static void main(String[] args) {
+		IndexedPriorityQueue<String> pq = new IndexedPriorityQueue<String>();
+		pq.setPriority("a", 1.0);
+		System.out.println("Added a:1 " + pq);
+		pq.setPriority("b", 2.0);
+		System.out.println("Added b:2 " + pq);
+		pq.setPriority("c", 1.5);
+		System.out.println("Added c:1.5 " + pq);
+		pq.setPriority("a", 3.0);
+		System.out.println("Increased a to 3 " + pq);
+		pq.setPriority("b", 0.0);
+		System.out.println("Decreased b to 0 " + pq);
+		pq.removeKey("c");
+		System.out.println("Removed c " + pq);
+		System.out.println("removeFirst()=" + pq.next());
+		System.out.println("queue=" + pq);
+
+		int numKeys = 100000;
+		int numOperations = 2000000;
+		if (args.length > 0)
+			numOperations = Integer.parseInt(args[0]);
+		System.out.println("Benchmark: " + numOperations + " operations over "
+				+ numKeys + " keys");
+		for (int trial = 0; trial < 3; trial++) {
+			benchmark(new GeneralPriorityQueue<Integer>(), numKeys,
+					numOperations, trial);
+			benchmark(new IndexedPriorityQueue<Integer>(), numKeys,
+					numOperations, trial);
+		}
+	}
+}
@@ -89,6 +89,14 @@ public class Indexer<E> extends AbstractList<E> implements Serializable {
 		indexes = new HashMap<E, Integer>();
 	}
 
+	/**
+	 * Wraps existing index structures; used by ConcurrentIndexer.freeze().
+	 */
+	Indexer(List<E> objects, Map<E, Integer> indexes) {
+		this.objects = objects;
+		this.indexes = indexes;
+	}
+
 	public Indexer(Collection<? extends E> c) {
 		this();
 		addAll(c);
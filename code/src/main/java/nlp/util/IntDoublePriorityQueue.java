@@ -0,0 +1,361 @@
+package nlp.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A priority queue over int elements with double priorities, for agendas and
+ * beams whose items are already numbered (chart edges, states, hypotheses).
+ * Higher priorities are at the head of the queue. The queue is an indexed
+ * binary heap held in parallel primitive arrays: the heap of elements, each
+ * element's priority, and each element's heap location (or -1 if the element
+ * is not in the queue). Each element is in the queue at most once, so
+ * setPriority promotes or demotes it in place. Elements must be non-negative;
+ * the arrays grow to fit the largest element seen, after which no operation
+ * allocates.
+ */
+public class IntDoublePriorityQueue implements Serializable {
+	private static final long serialVersionUID = 5724671156522771660L;
+	int size;
+	/**
+	 * <code>heap[loc]</code> is the element at heap location loc.
+	 */
+	int[] heap;
+	/**
+	 * <code>locations[element]</code> is the heap location of the element, or
+	 * -1 if it is not in the queue.
+	 */
+	int[] locations;
+	/**
+	 * <code>priorities[element]</code> is the priority of the element, if it
+	 * is in the queue.
+	 */
+	double[] priorities;
+
+	public boolean containsKey(int element) {
+		return element >= 0 && element < locations.length
+				&& locations[element] >= 0;
+	}
+
+	/**
+	 * Get the priority of an element -- if the element is not in the queue,
+	 * Double.NEGATIVE_INFINITY is returned.
+	 */
+	public double getPriority(int element) {
+		if (!containsKey(element))
+			return Double.NEGATIVE_INFINITY;
+		return priorities[element];
+	}
+
+	/**
+	 * Changes a priority, either up or down, adding the element if it wasn't
+	 * there already.
+	 */
+	public void setPriority(int element, double priority) {
+		if (!containsKey(element)) {
+			insert(element, priority);
+			return;
+		}
+		double oldPriority = priorities[element];
+		priorities[element] = priority;
+		if (priority > oldPriority)
+			heapifyUp(locations[element]);
+		else if (priority < oldPriority)
+			heapifyDown(locations[element]);
+	}
+
+	/**
+	 * Promotes an element in the queue, adding it if it wasn't there already.
+	 * If the specified priority is worse than the current priority, nothing
+	 * happens.
+	 *
+	 * @return whether the priority actually improved.
+	 */
+	public boolean relaxPriority(int element, double priority) {
+		if (!containsKey(element)) {
+			insert(element, priority);
+			return true;
+		}
+		if (priority <= priorities[element])
+			return false;
+		priorities[element] = priority;
+		heapifyUp(locations[element]);
+		return true;
+	}
+
+	/**
+	 * Demotes an element in the queue, adding it if it wasn't there already.
+	 * If the specified priority is better than the current priority, nothing
+	 * happens.
+	 *
+	 * @return whether the priority actually got worse.
+	 */
+	public boolean decreasePriority(int element, double priority) {
+		if (!containsKey(element)) {
+			insert(element, priority);
+			return true;
+		}
+		if (priority >= priorities[element])
+			return false;
+		priorities[element] = priority;
+		heapifyDown(locations[element]);
+		return true;
+	}
+
+	/**
+	 * Removes an element from the queue, returning its priority, or
+	 * Double.NEGATIVE_INFINITY if the element was not in the queue.
+	 */
+	public double removeKey(int element) {
+		if (!containsKey(element))
+			return Double.NEGATIVE_INFINITY;
+		double priority = priorities[element];
+		removeAt(locations[element]);
+		return priority;
+	}
+
+	/**
+	 * Finds the element with the highest priority, removes it, and returns it.
+	 */
+	public int removeFirst() {
+		if (size < 1)
+			throw new NoSuchElementException();
+		int first = heap[0];
+		removeAt(0);
+		return first;
+	}
+
+	/**
+	 * Returns the highest-priority element in the queue, but does not pop it.
+	 */
+	public int getFirst() {
+		if (size < 1)
+			throw new NoSuchElementException();
+		return heap[0];
+	}
+
+	/**
+	 * Gets the priority of the highest-priority element of the queue.
+	 */
+	public double getPriority() {
+		if (size < 1)
+			throw new NoSuchElementException();
+		return priorities[heap[0]];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Clears the queue in time proportional to its size, keeping its allocated
+	 * capacity.
+	 */
+	public void clear() {
+		for (int loc = 0; loc < size; loc++) {
+			locations[heap[loc]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Makes room for elements 0 through numElements - 1, so that later
+	 * insertions of those elements do not allocate.
+	 */
+	public void ensureCapacity(int numElements) {
+		if (numElements <= locations.length)
+			return;
+		int newCapacity = Math.max(numElements, 2 * locations.length + 1);
+		int oldCapacity = locations.length;
+		heap = Arrays.copyOf(heap, newCapacity);
+		locations = Arrays.copyOf(locations, newCapacity);
+		Arrays.fill(locations, oldCapacity, newCapacity, -1);
+		priorities = Arrays.copyOf(priorities, newCapacity);
+	}
+
+	private void insert(int element, double priority) {
+		if (element < 0)
+			throw new IllegalArgumentException("Negative element: " + element);
+		ensureCapacity(element + 1);
+		priorities[element] = priority;
+		heap[size] = element;
+		locations[element] = size;
+		size++;
+		heapifyUp(size - 1);
+	}
+
+	private void removeAt(int loc) {
+		int element = heap[loc];
+		size--;
+		if (loc != size) {
+			int last = heap[size];
+			heap[loc] = last;
+			locations[last] = loc;
+			heapifyUp(loc);
+			heapifyDown(locations[last]);
+		}
+		locations[element] = -1;
+	}
+
+	/**
+	 * Moves the element at loc up until its parent has at least its priority.
+	 * The element is carried in a hole rather than swapped at each level.
+	 */
+	protected void heapifyUp(int loc) {
+		int element = heap[loc];
+		double priority = priorities[element];
+		while (loc > 0) {
+			int parent = (loc - 1) / 2;
+			int parentElement = heap[parent];
+			if (priorities[parentElement] >= priority)
+				break;
+			heap[loc] = parentElement;
+			locations[parentElement] = loc;
+			loc = parent;
+		}
+		heap[loc] = element;
+		locations[element] = loc;
+	}
+
+	/**
+	 * Moves the element at loc down until both its children have at most its
+	 * priority.
+	 */
+	protected void heapifyDown(int loc) {
+		int element = heap[loc];
+		double priority = priorities[element];
+		while (true) {
+			int child = 2 * loc + 1;
+			if (child >= size)
+				break;
+			int rightChild = child + 1;
+			if (rightChild < size
+					&& priorities[heap[rightChild]] > priorities[heap[child]])
+				child = rightChild;
+			int childElement = heap[child];
+			if (priorities[childElement] <= priority)
+				break;
+			heap[loc] = childElement;
+			locations[childElement] = loc;
+			loc = child;
+		}
+		heap[loc] = element;
+		locations[element] = loc;
+	}
+
+	/**
+	 * Returns a representation of the queue in decreasing priority order.
+	 */
+	public String toString() {
+		return toString(size());
+	}
+
+	/**
+	 * Returns a representation of the queue in decreasing priority order,
+	 * displaying at most maxKeysToPrint elements.
+	 */
+	public String toString(int maxKeysToPrint) {
+		IntDoublePriorityQueue pq = deepCopy();
+		StringBuilder sb = new StringBuilder("[");
+		int numKeysPrinted = 0;
+		while (numKeysPrinted < maxKeysToPrint && !pq.isEmpty()) {
+			double priority = pq.getPriority();
+			int element = pq.removeFirst();
+			sb.append(element);
+			sb.append(" : ");
+			sb.append(priority);
+			if (numKeysPrinted < size() - 1)
+				sb.append(", ");
+			numKeysPrinted++;
+		}
+		if (numKeysPrinted < size())
+			sb.append("...");
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a clone of this priority queue. Modifications to one will not
+	 * affect modifications to the other.
+	 */
+	public IntDoublePriorityQueue deepCopy() {
+		IntDoublePriorityQueue clonePQ = new IntDoublePriorityQueue(0);
+		clonePQ.size = size;
+		clonePQ.heap = heap.clone();
+		clonePQ.locations = locations.clone();
+		clonePQ.priorities = priorities.clone();
+		return clonePQ;
+	}
+
+	public IntDoublePriorityQueue() {
+		this(15);
+	}
+
+	/**
+	 * Builds a queue with room for elements 0 through numElements - 1.
+	 */
+	public IntDoublePriorityQueue(int numElements) {
+		heap = new int[numElements];
+		locations = new int[numElements];
+		Arrays.fill(locations, -1);
+		priorities = new double[numElements];
+	}
+
+	public static void main(String[] args) {
+		IntDoublePriorityQueue pq = new IntDoublePriorityQueue(4);
+		pq.setPriority(0, 1.0);
+		pq.setPriority(1, 2.0);
+		pq.setPriority(2, 1.5);
+		System.out.println("Added 0:1 1:2 2:1.5 " + pq);
+		pq.setPriority(0, 3.0);
+		System.out.println("Increased 0 to 3 " + pq);
+		pq.setPriority(1, 0.0);
+		System.out.println("Decreased 1 to 0 " + pq);
+		pq.setPriority(7, 2.5);
+		System.out.println("Added 7:2.5 " + pq);
+		System.out.println("removeFirst()=" + pq.removeFirst());
+		System.out.println("queue=" + pq);
+
+		// Same agenda workload through the object and primitive queues
+		int numKeys = 100000;
+		int numOperations = 2000000;
+		for (int trial = 0; trial < 3; trial++) {
+			GeneralPriorityQueue<Integer> objectQueue = new GeneralPriorityQueue<Integer>();
+			IntDoublePriorityQueue intQueue = new IntDoublePriorityQueue(
+					numKeys);
+			for (int q = 0; q < 2; q++) {
+				Random random = new Random(trial);
+				double checksum = 0.0;
+				Stopwatch stopwatch = new Stopwatch();
+				for (int op = 0; op < numOperations; op++) {
+					int key = random.nextInt(numKeys);
+					double priority = random.nextDouble();
+					boolean pop = random.nextInt(3) == 0;
+					if (q == 0) {
+						objectQueue.relaxPriority(key, priority);
+						if (pop)
+							checksum += objectQueue.removeKey(objectQueue
+									.getFirst());
+					} else {
+						intQueue.relaxPriority(key, priority);
+						if (pop) {
+							checksum += intQueue.getPriority();
+							intQueue.removeFirst();
+						}
+					}
+				}
+				stopwatch.stop();
+				System.out.printf("  %-24s %8.3f sec (checksum %.4f)\n",
+						(q == 0 ? "GeneralPriorityQueue"
+								: "IntDoublePriorityQueue"), stopwatch
+								.getLastElapsedTime(), checksum);
+			}
+		}
+	}
+}
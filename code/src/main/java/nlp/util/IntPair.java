@@ -0,0 +1,87 @@
+package nlp.util;
+
+import java.io.Serializable;
+
+/**
+ * An immutable pair of ints, and static methods for packing a pair of ints
+ * into a single long. Code that keys on positions or ids (i, j) can use the
+ * packed long as the key of a LongHashSet or other primitive map, so that
+ * lookups allocate nothing; IntPair itself is for the places an object is
+ * needed, and converts to and from the packed form.
+ */
+public final class IntPair implements Serializable, Comparable<IntPair> {
+	private static final long serialVersionUID = 1L;
+	private final int first;
+	private final int second;
+
+	/**
+	 * Packs (first, second) into a long, first in the high 32 bits. Packed
+	 * keys with non-negative components sort the same way as the pairs do
+	 * lexicographically.
+	 */
+	public static long pack(int first, int second) {
+		return ((long) first << 32) | (second & 0xffffffffL);
+	}
+
+	/**
+	 * Packs the pair with the smaller int first, so that (i, j) and (j, i)
+	 * get the same key, as for an UnorderedPair.
+	 */
+	public static long packUnordered(int first, int second) {
+		return (first <= second ? pack(first, second) : pack(second, first));
+	}
+
+	public static int first(long key) {
+		return (int) (key >> 32);
+	}
+
+	public static int second(long key) {
+		return (int) key;
+	}
+
+	public static IntPair fromLong(long key) {
+		return new IntPair(first(key), second(key));
+	}
+
+	public int getFirst() {
+		return first;
+	}
+
+	public int getSecond() {
+		return second;
+	}
+
+	public long toLong() {
+		return pack(first, second);
+	}
+
+	public int compareTo(IntPair pair) {
+		if (first != pair.first)
+			return (first < pair.first ? -1 : 1);
+		if (second != pair.second)
+			return (second < pair.second ? -1 : 1);
+		return 0;
+	}
+
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof IntPair))
+			return false;
+		IntPair pair = (IntPair) o;
+		return first == pair.first && second == pair.second;
+	}
+
+	public int hashCode() {
+		return 29 * first + second;
+	}
+
+	public String toString() {
+		return "(" + first + ", " + second + ")";
+	}
+
+	public IntPair(int first, int second) {
+		this.first = first;
+		this.second = second;
+	}
+}
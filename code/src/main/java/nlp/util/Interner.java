@@ -1,7 +1,15 @@
 package nlp.util;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Canonicalizes objects. Given an object, the intern() method returns a
@@ -11,11 +19,18 @@ import java.util.Map;
  * interner is backed by a HashMap and the canonical version of an object x is
  * simply the first object that equals(x) which is passed to the interner. In
  * this case, it can be true that intern(x) == x. The backing map can be
- * specified by passing a MapFactory on construction (though the only standard
- * option which makes much sense is the WeakHashMap, which is slower than a
- * HashMap, but which allows unneeded keys to be reclaimed by the garbage
- * collector). The source of canonical elements can be changed by specifying an
- * Interner.Factory on construction.
+ * specified by passing a MapFactory on construction. The source of canonical
+ * elements can be changed by specifying an Interner.Factory on construction.
+ * <p/>
+ * By default the interner keeps every canonical object forever. For
+ * long-running processes, an interner can instead be built with WEAK or SOFT
+ * Retention, in which case canonical objects that nothing else refers to are
+ * reclaimed by the garbage collector (the guarantee above still holds for
+ * every object you can still get at). Alternatively, an interner can be
+ * bounded to a maximum size, in which case the least recently used canonical
+ * objects are dropped once it is full; then intern(x) == intern(y) only holds
+ * if x's canonical object was not dropped in between. In any mode the
+ * interner counts hits, misses and evictions.
  */
 public class Interner<T> {
 	/**
@@ -32,9 +47,32 @@ public class Interner<T> {
 		}
 	}
 
+	/**
+	 * How strongly the interner holds on to canonical objects: STRONG keeps
+	 * them until clear(), WEAK lets them go as soon as nothing else refers to
+	 * them, and SOFT lets them go when the garbage collector needs memory.
+	 */
+	public static enum Retention {
+		STRONG, WEAK, SOFT
+	}
+
+	/**
+	 * Canonical objects, for STRONG retention.
+	 */
 	Map<T, T> canonicalMap;
+	/**
+	 * References to canonical objects, for WEAK and SOFT retention. Keys are
+	 * held weakly; the value is the only other reference the interner keeps.
+	 */
+	Map<T, Reference<T>> referenceMap;
+	ReferenceQueue<T> reclaimed;
+	Retention retention;
 	CanonicalFactory<T> cf;
 
+	long numHits;
+	long numMisses;
+	long numEvictions;
+
 	/**
 	 * Returns a canonical representation of the given object. If the object has
 	 * no canonical representation, one is built using the interner's
@@ -45,14 +83,47 @@ public class Interner<T> {
 	 * @return a canonical representation of that object
 	 */
 	public T intern(T object) {
+		if (retention != Retention.STRONG)
+			return internReference(object);
 		T canonical = canonicalMap.get(object);
 		if (canonical == null) {
+			numMisses++;
 			canonical = cf.build(object);
 			canonicalMap.put(canonical, canonical);
+		} else {
+			numHits++;
+		}
+		return canonical;
+	}
+
+	private T internReference(T object) {
+		countReclaimed();
+		Reference<T> reference = referenceMap.get(object);
+		T canonical = (reference == null ? null : reference.get());
+		if (canonical == null) {
+			numMisses++;
+			canonical = cf.build(object);
+			if (retention == Retention.WEAK)
+				reference = new WeakReference<T>(canonical, reclaimed);
+			else
+				reference = new SoftReference<T>(canonical, reclaimed);
+			referenceMap.put(canonical, reference);
+		} else {
+			numHits++;
 		}
 		return canonical;
 	}
 
+	/**
+	 * Counts the canonical objects the garbage collector has reclaimed since
+	 * the last call as evictions.
+	 */
+	private void countReclaimed() {
+		while (reclaimed.poll() != null) {
+			numEvictions++;
+		}
+	}
+
 	/**
 	 * Does the interner already have a canonical copy of this object?
 	 * 
@@ -61,7 +132,10 @@ public class Interner<T> {
 	 * @author aria42
 	 */
 	public boolean contains(T object) {
-		return canonicalMap.containsKey(object);
+		if (retention == Retention.STRONG)
+			return canonicalMap.containsKey(object);
+		Reference<T> reference = referenceMap.get(object);
+		return reference != null && reference.get() != null;
 	}
 
 	/**
@@ -71,7 +145,10 @@ public class Interner<T> {
 	 * @author aria42
 	 */
 	public int size() {
-		return canonicalMap.size();
+		if (retention == Retention.STRONG)
+			return canonicalMap.size();
+		countReclaimed();
+		return referenceMap.size();
 	}
 
 	/**
@@ -81,7 +158,61 @@ public class Interner<T> {
 	 * @author aria42
 	 */
 	public Collection<T> getCanonicalObjects() {
-		return canonicalMap.values();
+		if (retention == Retention.STRONG)
+			return canonicalMap.values();
+		List<T> canonicalObjects = new ArrayList<T>();
+		for (Reference<T> reference : referenceMap.values()) {
+			T canonical = reference.get();
+			if (canonical != null)
+				canonicalObjects.add(canonical);
+		}
+		return canonicalObjects;
+	}
+
+	/**
+	 * Number of intern() calls which found an existing canonical object.
+	 */
+	public long getNumHits() {
+		return numHits;
+	}
+
+	/**
+	 * Number of intern() calls which had to build a new canonical object.
+	 */
+	public long getNumMisses() {
+		return numMisses;
+	}
+
+	/**
+	 * Number of canonical objects dropped, either because the interner was
+	 * full or because the garbage collector reclaimed them.
+	 */
+	public long getNumEvictions() {
+		if (retention != Retention.STRONG)
+			countReclaimed();
+		return numEvictions;
+	}
+
+	/**
+	 * Fraction of intern() calls which were hits, or zero if there were none.
+	 */
+	public double getHitRate() {
+		long numCalls = numHits + numMisses;
+		return (numCalls == 0 ? 0.0 : (double) numHits / numCalls);
+	}
+
+	public void resetStatistics() {
+		if (retention != Retention.STRONG)
+			countReclaimed();
+		numHits = 0;
+		numMisses = 0;
+		numEvictions = 0;
+	}
+
+	public String getStatistics() {
+		return String.format(
+				"size=%d hits=%d misses=%d evictions=%d hitRate=%.4f", size(),
+				getNumHits(), getNumMisses(), getNumEvictions(), getHitRate());
 	}
 
 	public Interner() {
@@ -99,7 +230,46 @@ public class Interner<T> {
 
 	public Interner(MapFactory<T, T> mf, CanonicalFactory<T> cf) {
 		canonicalMap = mf.buildMap();
+		retention = Retention.STRONG;
+		this.cf = cf;
+	}
+
+	public Interner(Retention retention) {
+		this(retention, new IdentityCanonicalFactory<T>());
+	}
+
+	public Interner(Retention retention, CanonicalFactory<T> cf) {
+		this.retention = retention;
 		this.cf = cf;
+		if (retention == Retention.STRONG) {
+			canonicalMap = new MapFactory.HashMapFactory<T, T>().buildMap();
+		} else {
+			referenceMap = new WeakHashMap<T, Reference<T>>();
+			reclaimed = new ReferenceQueue<T>();
+		}
+	}
+
+	/**
+	 * Builds an interner holding at most maxSize canonical objects, dropping
+	 * the least recently interned one when full.
+	 */
+	public Interner(int maxSize) {
+		this(maxSize, new IdentityCanonicalFactory<T>());
+	}
+
+	public Interner(final int maxSize, CanonicalFactory<T> cf) {
+		this.retention = Retention.STRONG;
+		this.cf = cf;
+		canonicalMap = new LinkedHashMap<T, T>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<T, T> eldest) {
+				if (size() <= maxSize)
+					return false;
+				numEvictions++;
+				return true;
+			}
+		};
 	}
 
 	/**
@@ -108,7 +278,34 @@ public class Interner<T> {
 	 * @author aria42
 	 */
 	public void clear() {
-		canonicalMap.clear();
+		if (retention == Retention.STRONG) {
+			canonicalMap.clear();
+		} else {
+			referenceMap.clear();
+			countReclaimed();
+		}
+	}
+
+	public static void main(String[] args) {
+		Interner<String> bounded = new Interner<String>(2);
+		for (String s : new String[] { "a", "b", "a", "c", "b", "a" }) {
+			bounded.intern(new String(s));
+		}
+		System.out.println("Bounded(2): " + bounded.getStatistics());
+
+		Interner<String> weak = new Interner<String>(Retention.WEAK);
+		String kept = weak.intern(new String("kept"));
+		for (int i = 0; i < 100000; i++) {
+			weak.intern(new String("garbage-" + i));
+		}
+		System.gc();
+		try {
+			// give the collector's reference handler a moment to enqueue
+			Thread.sleep(100);
+		} catch (InterruptedException e) {
+		}
+		System.out.println("Weak: " + weak.getStatistics() + " kept="
+				+ (weak.intern(new String("kept")) == kept));
 	}
 
 }
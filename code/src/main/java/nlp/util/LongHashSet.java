@@ -0,0 +1,169 @@
+package nlp.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of primitive longs, stored by open addressing in a long[] table with
+ * linear probing. Unlike a HashSet<Long>, or a HashSet<Pair<Integer,
+ * Integer>> for pairs of ints (pack those with IntPair.pack), neither add()
+ * nor contains() allocates. Elements cannot be removed one at a time; use clear().
+ */
+public class LongHashSet implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final long EMPTY = 0L;
+	private static final double LOAD_FACTOR = 0.5;
+
+	/**
+	 * Slots holding EMPTY are free; the element EMPTY itself is tracked by
+	 * containsEmpty instead of a slot.
+	 */
+	long[] table;
+	boolean containsEmpty;
+	int size;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(long key) {
+		if (key == EMPTY)
+			return containsEmpty;
+		int mask = table.length - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			long probe = table[slot];
+			if (probe == key)
+				return true;
+			if (probe == EMPTY)
+				return false;
+		}
+	}
+
+	/**
+	 * Adds the key, returning true if it was not already in the set.
+	 */
+	public boolean add(long key) {
+		if (key == EMPTY) {
+			if (containsEmpty)
+				return false;
+			containsEmpty = true;
+			size++;
+			return true;
+		}
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		for (; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (table[slot] == key)
+				return false;
+		}
+		table[slot] = key;
+		size++;
+		if (size > LOAD_FACTOR * table.length)
+			rehash(2 * table.length);
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(table, EMPTY);
+		containsEmpty = false;
+		size = 0;
+	}
+
+	/**
+	 * The elements of the set, in no particular order.
+	 */
+	public long[] toArray() {
+		long[] keys = new long[size];
+		int i = 0;
+		if (containsEmpty)
+			keys[i++] = EMPTY;
+		for (long key : table) {
+			if (key != EMPTY)
+				keys[i++] = key;
+		}
+		return keys;
+	}
+
+	/**
+	 * Iterates over the elements without boxing them: call hasNext() and
+	 * next() on the returned iterator.
+	 */
+	public LongIterator iterator() {
+		return new LongIterator();
+	}
+
+	public class LongIterator {
+		int slot = (containsEmpty ? -1 : 0);
+
+		public boolean hasNext() {
+			if (slot < 0)
+				return true;
+			while (slot < table.length && table[slot] == EMPTY) {
+				slot++;
+			}
+			return slot < table.length;
+		}
+
+		public long next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			if (slot < 0) {
+				slot = 0;
+				return EMPTY;
+			}
+			return table[slot++];
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldTable = table;
+		table = new long[capacity];
+		int mask = capacity - 1;
+		for (long key : oldTable) {
+			if (key == EMPTY)
+				continue;
+			int slot = hash(key) & mask;
+			while (table[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = key;
+		}
+	}
+
+	/**
+	 * Mixes all 64 bits, since packed pairs often differ only in one half.
+	 */
+	private static int hash(long key) {
+		key *= 0x9e3779b97f4a7c15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		LongIterator it = iterator();
+		while (it.hasNext()) {
+			sb.append(it.next());
+			if (it.hasNext())
+				sb.append(", ");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+	public LongHashSet() {
+		this(16);
+	}
+
+	public LongHashSet(int expectedSize) {
+		int capacity = 4;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+}
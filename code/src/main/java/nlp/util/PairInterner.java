@@ -0,0 +1,94 @@
+package nlp.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash-conses Pairs and UnorderedPairs: getPair(f, s) returns the one
+ * canonical Pair equal to (f, s), building it only the first time. Lookups
+ * go through a reusable probe pair, so asking for a pair the interner already
+ * has allocates nothing, and canonical pairs can be compared with ==. The
+ * canonical pairs must not be modified with setFirst() or setSecond(). Not
+ * thread-safe.
+ */
+public class PairInterner<F, S> {
+	Map<Pair<F, S>, Pair<F, S>> pairs = new HashMap<Pair<F, S>, Pair<F, S>>();
+	Map<UnorderedPair<F, S>, UnorderedPair<F, S>> unorderedPairs = new HashMap<UnorderedPair<F, S>, UnorderedPair<F, S>>();
+	Pair<F, S> probe = new Pair<F, S>(null, null);
+	UnorderedPair<F, S> unorderedProbe = new UnorderedPair<F, S>(null, null);
+
+	public Pair<F, S> getPair(F first, S second) {
+		probe.first = first;
+		probe.second = second;
+		Pair<F, S> canonical = pairs.get(probe);
+		probe.first = null;
+		probe.second = null;
+		if (canonical == null) {
+			canonical = new Pair<F, S>(first, second);
+			pairs.put(canonical, canonical);
+		}
+		return canonical;
+	}
+
+	/**
+	 * Returns the canonical Pair equal to the given one.
+	 */
+	public Pair<F, S> intern(Pair<F, S> pair) {
+		return getPair(pair.getFirst(), pair.getSecond());
+	}
+
+	/**
+	 * Returns the canonical UnorderedPair of first and second; (a, b) and
+	 * (b, a) give the same object.
+	 */
+	public UnorderedPair<F, S> getUnorderedPair(F first, S second) {
+		unorderedProbe.first = first;
+		unorderedProbe.second = second;
+		UnorderedPair<F, S> canonical = unorderedPairs.get(unorderedProbe);
+		unorderedProbe.first = null;
+		unorderedProbe.second = null;
+		if (canonical == null) {
+			canonical = new UnorderedPair<F, S>(first, second);
+			unorderedPairs.put(canonical, canonical);
+		}
+		return canonical;
+	}
+
+	public boolean contains(F first, S second) {
+		probe.first = first;
+		probe.second = second;
+		boolean contains = pairs.containsKey(probe);
+		probe.first = null;
+		probe.second = null;
+		return contains;
+	}
+
+	/**
+	 * Number of canonical Pairs and UnorderedPairs.
+	 */
+	public int size() {
+		return pairs.size() + unorderedPairs.size();
+	}
+
+	public void clear() {
+		pairs.clear();
+		unorderedPairs.clear();
+	}
+
+	public static void main(String[] args) {
+		PairInterner<String, String> interner = new PairInterner<String, String>();
+		Pair<String, String> pair = interner.getPair("the", "le");
+		System.out.println(pair + " canonical: "
+				+ (interner.getPair(new String("the"), "le") == pair));
+		System.out.println("unordered: "
+				+ (interner.getUnorderedPair("a", "b") == interner
+						.getUnorderedPair("b", "a")));
+
+		LongHashSet alignments = new LongHashSet();
+		alignments.add(IntPair.pack(3, 5));
+		alignments.add(IntPair.pack(0, 0));
+		System.out.println("(3, 5): " + alignments.contains(IntPair.pack(3, 5))
+				+ " (5, 3): " + alignments.contains(IntPair.pack(5, 3))
+				+ " size: " + alignments.size());
+	}
+}
@@ -0,0 +1,102 @@
+package nlp.util;
+
+/**
+ * A cursor over a sentence of int ids (for example word ids from a Vocabulary
+ * or an Indexer), for extracting local context features. get(offset) returns
+ * the id offset positions away from the cursor, or a boundary id past either
+ * end of the sentence, the same way BoundedList does for lists of objects. The
+ * window is pointed at each new sentence with reset(), which copies nothing, so
+ * one window can walk a whole corpus without allocating.
+ */
+public class SentenceWindow {
+	private final int leftBoundary;
+	private final int rightBoundary;
+	private int[] ids;
+	private int start;
+	private int length;
+	private int position;
+
+	/**
+	 * Points the window at the sentence held in ids[start] to
+	 * ids[start + length - 1], with the cursor at the sentence's first word.
+	 */
+	public SentenceWindow reset(int[] ids, int start, int length) {
+		this.ids = ids;
+		this.start = start;
+		this.length = length;
+		this.position = 0;
+		return this;
+	}
+
+	/**
+	 * Points the window at a whole array of ids.
+	 */
+	public SentenceWindow reset(int[] ids) {
+		return reset(ids, 0, ids.length);
+	}
+
+	/**
+	 * The length of the sentence, not counting boundaries.
+	 */
+	public int size() {
+		return length;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Moves the cursor to the given position. Positions outside the sentence
+	 * are allowed; everything read from there is relative to it.
+	 */
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	/**
+	 * Moves the cursor one position to the right, returning whether it is
+	 * still within the sentence.
+	 */
+	public boolean advance() {
+		position++;
+		return position < length;
+	}
+
+	/**
+	 * The id at the cursor.
+	 */
+	public int current() {
+		return get(0);
+	}
+
+	/**
+	 * The id offset positions from the cursor (negative offsets look left), or
+	 * the left or right boundary id if that is outside the sentence.
+	 */
+	public int get(int offset) {
+		return getAbsolute(position + offset);
+	}
+
+	/**
+	 * The id at the given position in the sentence, or the left or right
+	 * boundary id if that is outside the sentence.
+	 */
+	public int getAbsolute(int index) {
+		if (index < 0)
+			return leftBoundary;
+		if (index >= length)
+			return rightBoundary;
+		return ids[start + index];
+	}
+
+	public SentenceWindow(int leftBoundary, int rightBoundary) {
+		this.leftBoundary = leftBoundary;
+		this.rightBoundary = rightBoundary;
+		this.ids = new int[0];
+	}
+
+	public SentenceWindow(int boundary) {
+		this(boundary, boundary);
+	}
+}
@@ -0,0 +1,394 @@
+package nlp.util;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A sparse vector of doubles over integer indexes, stored as a sorted int[] of
+ * indexes and a parallel double[] of values. This is the array counterpart of
+ * a Counter whose keys have been numbered by an Indexer: build one with
+ * fromCounter(), and the similarity computations in Counters
+ * (dotProduct, jensenShannonDivergence) and normalization can then run as
+ * merges over primitive arrays instead of hash lookups. A vector whose indexes
+ * are exactly 0 to size() - 1 is dense, and operations between dense vectors
+ * skip the index comparisons altogether.
+ */
+public class SparseVector implements Serializable {
+	private static final long serialVersionUID = 1L;
+	int[] indexes;
+	double[] values;
+	int size;
+
+	/**
+	 * Number of entries (not the dimension, and not the total -- use
+	 * totalCount() for that).
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The index of the num'th entry, in increasing order.
+	 */
+	public int getIndex(int num) {
+		return indexes[num];
+	}
+
+	public double getValue(int num) {
+		return values[num];
+	}
+
+	/**
+	 * The value at the given index, or zero if there is no entry for it. This
+	 * is a binary search; prefer iterating over entries.
+	 */
+	public double getCount(int index) {
+		int num = find(index);
+		return (num < 0 ? 0.0 : values[num]);
+	}
+
+	private int find(int index) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (indexes[mid] < index)
+				low = mid + 1;
+			else if (indexes[mid] > index)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * True if the entries are for exactly the indexes 0 to size() - 1 (since
+	 * indexes are distinct and nonnegative, the last one tells).
+	 */
+	public boolean isDense() {
+		return size == 0 || indexes[size - 1] == size - 1;
+	}
+
+	public double totalCount() {
+		return sum(values, size);
+	}
+
+	/**
+	 * Destructively normalize this vector in place so that its values sum to
+	 * one.
+	 */
+	public void normalize() {
+		scale(1.0 / totalCount());
+	}
+
+	/**
+	 * Destructively scale this vector in place.
+	 */
+	public void scale(double scaleFactor) {
+		int i = 0;
+		for (; i + 3 < size; i += 4) {
+			values[i] *= scaleFactor;
+			values[i + 1] *= scaleFactor;
+			values[i + 2] *= scaleFactor;
+			values[i + 3] *= scaleFactor;
+		}
+		for (; i < size; i++) {
+			values[i] *= scaleFactor;
+		}
+	}
+
+	/**
+	 * Dot product with another sparse vector, by a merge over the two sorted
+	 * index arrays. If one vector is much sparser than the other, its entries
+	 * are looked up in the other by binary search instead.
+	 */
+	public double dotProduct(SparseVector y) {
+		SparseVector x = this;
+		if (x.size > y.size) {
+			x = y;
+			y = this;
+		}
+		if (x.size == 0)
+			return 0.0;
+		if (x.isDense() && y.isDense())
+			return denseDotProduct(x.values, y.values, x.size);
+		if (x.size * 16 < y.size)
+			return searchDotProduct(x, y);
+		double total = 0.0;
+		int i = 0;
+		int j = 0;
+		while (i < x.size && j < y.size) {
+			int xIndex = x.indexes[i];
+			int yIndex = y.indexes[j];
+			if (xIndex == yIndex) {
+				total += x.values[i++] * y.values[j++];
+			} else if (xIndex < yIndex) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return total;
+	}
+
+	private static double searchDotProduct(SparseVector x, SparseVector y) {
+		double total = 0.0;
+		int low = 0;
+		for (int i = 0; i < x.size && low < y.size; i++) {
+			int index = x.indexes[i];
+			int high = y.size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (y.indexes[mid] < index)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			if (low < y.size && y.indexes[low] == index)
+				total += x.values[i] * y.values[low];
+		}
+		return total;
+	}
+
+	/**
+	 * Dot product with a dense vector of weights, indexed by this vector's
+	 * indexes.
+	 */
+	public double dotProduct(double[] weights) {
+		double total = 0.0;
+		for (int i = 0; i < size; i++) {
+			total += values[i] * weights[indexes[i]];
+		}
+		return total;
+	}
+
+	/**
+	 * Dot product of the first n entries of two arrays, with four independent
+	 * accumulators so the loop can be pipelined and vectorized by the JIT.
+	 */
+	static double denseDotProduct(double[] x, double[] y, int n) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += x[i] * y[i];
+			s1 += x[i + 1] * y[i + 1];
+			s2 += x[i + 2] * y[i + 2];
+			s3 += x[i + 3] * y[i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += x[i] * y[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	static double sum(double[] x, int n) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += x[i];
+			s1 += x[i + 1];
+			s2 += x[i + 2];
+			s3 += x[i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += x[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Same value as Counters.jensenShannonDivergence on the corresponding
+	 * counters, computed in one merge over both vectors. Zero entries are
+	 * skipped.
+	 */
+	public static double jensenShannonDivergence(SparseVector x, SparseVector y) {
+		double xTotal = x.totalCount();
+		double yTotal = y.totalCount();
+		double sum = 0.0;
+		int i = 0;
+		int j = 0;
+		while (i < x.size || j < y.size) {
+			int xIndex = (i < x.size ? x.indexes[i] : Integer.MAX_VALUE);
+			int yIndex = (j < y.size ? y.indexes[j] : Integer.MAX_VALUE);
+			double xVal = 0.0;
+			double yVal = 0.0;
+			if (xIndex <= yIndex)
+				xVal = x.values[i++] / xTotal;
+			if (yIndex <= xIndex)
+				yVal = y.values[j++] / yTotal;
+			double avg = 0.5 * (xVal + yVal);
+			if (xVal > 0.0)
+				sum += xVal * Math.log(xVal / avg);
+			if (yVal > 0.0)
+				sum += yVal * Math.log(yVal / avg);
+		}
+		return sum / 0.5;
+	}
+
+	/**
+	 * Builds the sparse vector for a counter, numbering its keys with the given
+	 * indexer (which gains any keys it did not have).
+	 */
+	public static <E> SparseVector fromCounter(Counter<E> counter,
+			Indexer<E> indexer) {
+		int[] indexes = new int[counter.size()];
+		double[] values = new double[counter.size()];
+		int i = 0;
+		for (Map.Entry<E, Double> entry : counter.getEntrySet()) {
+			indexes[i] = indexer.addAndGetIndex(entry.getKey());
+			values[i] = entry.getValue();
+			i++;
+		}
+		return new SparseVector(indexes, values);
+	}
+
+	/**
+	 * Builds the counter for this vector, with keys looked up in the indexer.
+	 */
+	public <E> Counter<E> toCounter(Indexer<E> indexer) {
+		Counter<E> counter = new Counter<E>();
+		for (int i = 0; i < size; i++) {
+			counter.setCount(indexer.get(indexes[i]), values[i]);
+		}
+		return counter;
+	}
+
+	/**
+	 * Builds a sparse vector from parallel arrays of indexes and values, which
+	 * are sorted by index in place. Indexes must be distinct and
+	 * nonnegative.
+	 */
+	public SparseVector(int[] indexes, double[] values) {
+		if (indexes.length != values.length)
+			throw new RuntimeException("diff lengths: " + indexes.length + " "
+					+ values.length);
+		this.indexes = indexes;
+		this.values = values;
+		this.size = indexes.length;
+		sort(0, size - 1);
+		if (size > 0 && indexes[0] < 0)
+			throw new IllegalArgumentException("Negative index: " + indexes[0]);
+		for (int i = 1; i < size; i++) {
+			if (indexes[i - 1] == indexes[i])
+				throw new IllegalArgumentException("Duplicate index: "
+						+ indexes[i]);
+		}
+	}
+
+	/**
+	 * Builds a dense vector over indexes 0 to values.length - 1.
+	 */
+	public SparseVector(double[] values) {
+		this.values = values;
+		this.size = values.length;
+		this.indexes = new int[size];
+		for (int i = 0; i < size; i++) {
+			indexes[i] = i;
+		}
+	}
+
+	/**
+	 * Quicksort of the parallel arrays by index, with insertion sort for short
+	 * ranges.
+	 */
+	private void sort(int low, int high) {
+		while (high - low > 16) {
+			int pivot = indexes[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (indexes[i] < pivot)
+					i++;
+				while (indexes[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			if (j - low < high - i) {
+				sort(low, j);
+				low = i;
+			} else {
+				sort(i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			for (int j = i; j > low && indexes[j - 1] > indexes[j]; j--) {
+				swap(j - 1, j);
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		int tempIndex = indexes[i];
+		indexes[i] = indexes[j];
+		indexes[j] = tempIndex;
+		double tempValue = values[i];
+		values[i] = values[j];
+		values[j] = tempValue;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(indexes[i]);
+			sb.append(" : ");
+			sb.append(values[i]);
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		int numKeys = 50000;
+		int numVectors = 200;
+		Indexer<String> indexer = new Indexer<String>();
+		Counter<String>[] counters = newCounterArray(numVectors);
+		SparseVector[] vectors = new SparseVector[numVectors];
+		for (int v = 0; v < numVectors; v++) {
+			counters[v] = new Counter<String>();
+			for (int k = 0; k < 2000; k++) {
+				counters[v].incrementCount("w" + random.nextInt(numKeys), 1.0);
+			}
+			vectors[v] = SparseVector.fromCounter(counters[v], indexer);
+		}
+		System.out.println("dot(0,1): counters="
+				+ Counters.dotProduct(counters[0], counters[1]) + " vectors="
+				+ vectors[0].dotProduct(vectors[1]));
+		System.out.println("JS(0,1): counters="
+				+ Counters.jensenShannonDivergence(counters[0], counters[1])
+				+ " vectors="
+				+ jensenShannonDivergence(vectors[0], vectors[1]));
+
+		double checksum = 0.0;
+		Stopwatch stopwatch = new Stopwatch();
+		for (int v = 0; v < numVectors; v++) {
+			for (int w = 0; w < numVectors; w++) {
+				checksum += Counters.dotProduct(counters[v], counters[w]);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("All-pairs dot, Counters:      %.3f sec (%.1f)\n",
+				stopwatch.getLastElapsedTime(), checksum);
+		checksum = 0.0;
+		stopwatch = new Stopwatch();
+		for (int v = 0; v < numVectors; v++) {
+			for (int w = 0; w < numVectors; w++) {
+				checksum += vectors[v].dotProduct(vectors[w]);
+			}
+		}
+		stopwatch.stop();
+		System.out.printf("All-pairs dot, SparseVectors: %.3f sec (%.1f)\n",
+				stopwatch.getLastElapsedTime(), checksum);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Counter<String>[] newCounterArray(int n) {
+		return (Counter<String>[]) new Counter<?>[n];
+	}
+}
@@ -0,0 +1,457 @@
+package nlp.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maintains a two-way map between words and contiguous integers from 0 to the
+ * number of words, like an Indexer&lt;String&gt;, but without keeping a String
+ * (or any other object) per word on the heap. The UTF-8 bytes of all words are
+ * stored back to back in a direct (off-heap) buffer, and words are found
+ * through an open-addressing hash table of ids, also off-heap. Use
+ * addAndGetIndex(word) and indexOf(word) to look words up; these accept any
+ * CharSequence and do not allocate once the vocabulary's buffers have grown to
+ * size. Use view(id) to read a word back through a reusable View, or get(id)
+ * to build a String.
+ * <p/>
+ * A vocabulary can be saved to a file and later mapped back in with map(),
+ * which reads nothing up front: the operating system pages in the parts that
+ * are used. A mapped vocabulary is copied into fresh buffers the first time a
+ * new word is added to it.
+ * <p/>
+ * Like Indexer, this class is not synchronized.
+ */
+public class Vocabulary {
+	private static final int MAGIC = 0x564f4342;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 5 * 4;
+
+	int size;
+	int numBytes;
+	/**
+	 * The UTF-8 bytes of all words, in id order.
+	 */
+	ByteBuffer bytes;
+	/**
+	 * size + 1 ints: word id occupies bytes offsets[id] to offsets[id + 1].
+	 */
+	ByteBuffer offsets;
+	/**
+	 * The hash of each word, so that rehashing and probing rarely touch bytes.
+	 */
+	ByteBuffer hashes;
+	/**
+	 * The open-addressing table: each slot holds id + 1, or 0 if empty.
+	 */
+	ByteBuffer table;
+	int tableCapacity;
+	boolean readOnly;
+	/**
+	 * The UTF-8 encoding of the word currently being looked up.
+	 */
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * A reusable, read-only view of one word in a Vocabulary. Pointing a view
+	 * at a word decodes it into the view's own buffer, so one view can be used
+	 * for many words without allocating.
+	 */
+	public static class View implements CharSequence {
+		final Vocabulary vocabulary;
+		int id = -1;
+		char[] chars = new char[32];
+		int length;
+
+		/**
+		 * Points this view at the given word, and returns the view.
+		 */
+		public View set(int id) {
+			if (id < 0 || id >= vocabulary.size)
+				throw new IndexOutOfBoundsException("Index: " + id + ", Size: "
+						+ vocabulary.size);
+			int start = vocabulary.offsets.getInt(4 * id);
+			int end = vocabulary.offsets.getInt(4 * (id + 1));
+			if (chars.length < end - start)
+				chars = new char[Math.max(end - start, 2 * chars.length)];
+			length = vocabulary.decode(start, end, chars);
+			this.id = id;
+			return this;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= length)
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Length: " + length);
+			return chars[index];
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return new String(chars, start, end - start);
+		}
+
+		public String toString() {
+			return new String(chars, 0, length);
+		}
+
+		View(Vocabulary vocabulary) {
+			this.vocabulary = vocabulary;
+		}
+	}
+
+	/**
+	 * Returns the number of words in the vocabulary.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the index of the given word, or -1 if the word is not present in
+	 * the vocabulary.
+	 */
+	public int indexOf(CharSequence word) {
+		int length = encode(word);
+		int hash = hash(scratch, length);
+		int slot = findSlot(hash, length);
+		return table.getInt(4 * slot) - 1;
+	}
+
+	public boolean contains(CharSequence word) {
+		return indexOf(word) >= 0;
+	}
+
+	/**
+	 * Add a word to the vocabulary if not already present. In either case,
+	 * returns the index of the given word.
+	 */
+	public int addAndGetIndex(CharSequence word) {
+		int length = encode(word);
+		int hash = hash(scratch, length);
+		int slot = findSlot(hash, length);
+		int id = table.getInt(4 * slot) - 1;
+		if (id >= 0)
+			return id;
+		if (readOnly)
+			makeWritable();
+		if (2 * (size + 1) > tableCapacity) {
+			rehash(2 * tableCapacity);
+			slot = findSlot(hash, length);
+		}
+		ensureCapacity(size + 1, numBytes + length);
+		id = size;
+		for (int i = 0; i < length; i++) {
+			bytes.put(numBytes + i, scratch[i]);
+		}
+		numBytes += length;
+		hashes.putInt(4 * id, hash);
+		offsets.putInt(4 * (id + 1), numBytes);
+		table.putInt(4 * slot, id + 1);
+		size++;
+		return id;
+	}
+
+	/**
+	 * Returns the word with the given index as a new String.
+	 */
+	public String get(int id) {
+		return new View(this).set(id).toString();
+	}
+
+	/**
+	 * Returns a new view of the word with the given index. To look at many
+	 * words without allocating, keep the view and call set() on it instead.
+	 */
+	public View view(int id) {
+		return new View(this).set(id);
+	}
+
+	/**
+	 * Number of bytes of word text held off-heap.
+	 */
+	public int getNumBytes() {
+		return numBytes;
+	}
+
+	/**
+	 * Returns the table slot holding the word currently in scratch, or the
+	 * empty slot where it would go.
+	 */
+	private int findSlot(int hash, int length) {
+		int mask = tableCapacity - 1;
+		int slot = hash & mask;
+		while (true) {
+			int entry = table.getInt(4 * slot);
+			if (entry == 0)
+				return slot;
+			int id = entry - 1;
+			if (hashes.getInt(4 * id) == hash && matchesScratch(id, length))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean matchesScratch(int id, int length) {
+		int start = offsets.getInt(4 * id);
+		if (offsets.getInt(4 * (id + 1)) - start != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (bytes.get(start + i) != scratch[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void rehash(int newTableCapacity) {
+		ByteBuffer newTable = ByteBuffer.allocateDirect(4 * newTableCapacity);
+		int mask = newTableCapacity - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes.getInt(4 * id) & mask;
+			while (newTable.getInt(4 * slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newTable.putInt(4 * slot, id + 1);
+		}
+		table = newTable;
+		tableCapacity = newTableCapacity;
+	}
+
+	private void ensureCapacity(int numWords, int numWordBytes) {
+		if (4 * (numWords + 1) > offsets.capacity())
+			offsets = grow(offsets, 4 * (size + 1), 4 * (2 * numWords + 1));
+		if (4 * numWords > hashes.capacity())
+			hashes = grow(hashes, 4 * size, 4 * 2 * numWords);
+		if (numWordBytes > bytes.capacity())
+			bytes = grow(bytes, numBytes, 2 * numWordBytes);
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int used, int newCapacity) {
+		ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+		ByteBuffer contents = buffer.duplicate();
+		contents.position(0);
+		contents.limit(used);
+		newBuffer.put(contents);
+		newBuffer.clear();
+		return newBuffer;
+	}
+
+	/**
+	 * Copies a mapped (read-only) vocabulary into fresh direct buffers.
+	 */
+	private void makeWritable() {
+		offsets = grow(offsets, 4 * (size + 1), 4 * (2 * size + 1));
+		hashes = grow(hashes, 4 * size, 4 * Math.max(2 * size, 1));
+		bytes = grow(bytes, numBytes, Math.max(2 * numBytes, 64));
+		table = grow(table, 4 * tableCapacity, 4 * tableCapacity);
+		readOnly = false;
+	}
+
+	/**
+	 * Encodes the word as UTF-8 into scratch, returning the number of bytes.
+	 * Unpaired surrogates are encoded as if they were ordinary characters, so
+	 * that every CharSequence survives the round trip.
+	 */
+	private int encode(CharSequence word) {
+		int n = word.length();
+		if (scratch.length < 3 * n)
+			scratch = new byte[Math.max(3 * n, 2 * scratch.length)];
+		int length = 0;
+		for (int i = 0; i < n; i++) {
+			char c = word.charAt(i);
+			if (c < 0x80) {
+				scratch[length++] = (byte) c;
+			} else if (c < 0x800) {
+				scratch[length++] = (byte) (0xc0 | (c >> 6));
+				scratch[length++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n
+					&& Character.isLowSurrogate(word.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, word.charAt(++i));
+				scratch[length++] = (byte) (0xf0 | (codePoint >> 18));
+				scratch[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				scratch[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				scratch[length++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else {
+				scratch[length++] = (byte) (0xe0 | (c >> 12));
+				scratch[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				scratch[length++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes the UTF-8 bytes from start to end into chars, returning the
+	 * number of chars written.
+	 */
+	int decode(int start, int end, char[] chars) {
+		int length = 0;
+		int i = start;
+		while (i < end) {
+			int b = bytes.get(i) & 0xff;
+			if (b < 0x80) {
+				chars[length++] = (char) b;
+				i += 1;
+			} else if (b < 0xe0) {
+				chars[length++] = (char) (((b & 0x1f) << 6) | (bytes.get(i + 1) & 0x3f));
+				i += 2;
+			} else if (b < 0xf0) {
+				chars[length++] = (char) (((b & 0x0f) << 12)
+						| ((bytes.get(i + 1) & 0x3f) << 6) | (bytes.get(i + 2) & 0x3f));
+				i += 3;
+			} else {
+				int codePoint = ((b & 0x07) << 18)
+						| ((bytes.get(i + 1) & 0x3f) << 12)
+						| ((bytes.get(i + 2) & 0x3f) << 6)
+						| (bytes.get(i + 3) & 0x3f);
+				chars[length++] = Character.highSurrogate(codePoint);
+				chars[length++] = Character.lowSurrogate(codePoint);
+				i += 4;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * FNV-1a over the bytes, with a final mix so that the low bits used by the
+	 * table depend on every byte.
+	 */
+	private static int hash(byte[] b, int length) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < length; i++) {
+			h ^= b[i];
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	/**
+	 * Writes the vocabulary to a file which map() can read back.
+	 */
+	public void save(File file) throws IOException {
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(size)
+					.putInt(numBytes).putInt(tableCapacity);
+			header.flip();
+			writeFully(channel, header);
+			writeFully(channel, section(offsets, 4 * (size + 1)));
+			writeFully(channel, section(hashes, 4 * size));
+			writeFully(channel, section(table, 4 * tableCapacity));
+			writeFully(channel, section(bytes, numBytes));
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer section(ByteBuffer buffer, int length) {
+		ByteBuffer section = buffer.duplicate();
+		section.position(0);
+		section.limit(length);
+		return section;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Maps a vocabulary written by save() back into memory, without reading
+	 * it.
+	 */
+	public static Vocabulary map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			if (mapped.getInt(0) != MAGIC)
+				throw new IOException("Not a vocabulary file: " + file);
+			if (mapped.getInt(4) != VERSION)
+				throw new IOException("Unsupported vocabulary version "
+						+ mapped.getInt(4) + " in " + file);
+			Vocabulary vocabulary = new Vocabulary(0);
+			vocabulary.size = mapped.getInt(8);
+			vocabulary.numBytes = mapped.getInt(12);
+			vocabulary.tableCapacity = mapped.getInt(16);
+			int position = HEADER_BYTES;
+			vocabulary.offsets = slice(mapped, position,
+					4 * (vocabulary.size + 1));
+			position += 4 * (vocabulary.size + 1);
+			vocabulary.hashes = slice(mapped, position, 4 * vocabulary.size);
+			position += 4 * vocabulary.size;
+			vocabulary.table = slice(mapped, position,
+					4 * vocabulary.tableCapacity);
+			position += 4 * vocabulary.tableCapacity;
+			vocabulary.bytes = slice(mapped, position, vocabulary.numBytes);
+			vocabulary.readOnly = true;
+			return vocabulary;
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+		ByteBuffer section = buffer.duplicate();
+		section.position(position);
+		section.limit(position + length);
+		return section.slice();
+	}
+
+	public Vocabulary() {
+		this(1024);
+	}
+
+	/**
+	 * Builds an empty vocabulary with room for about the given number of
+	 * words before its buffers need to grow.
+	 */
+	public Vocabulary(int expectedSize) {
+		int capacity = Math.max(expectedSize, 16);
+		tableCapacity = Integer.highestOneBit(2 * capacity - 1) << 1;
+		table = ByteBuffer.allocateDirect(4 * tableCapacity);
+		offsets = ByteBuffer.allocateDirect(4 * (capacity + 1));
+		hashes = ByteBuffer.allocateDirect(4 * capacity);
+		bytes = ByteBuffer.allocateDirect(8 * capacity);
+	}
+
+	public static void main(String[] args) throws IOException {
+		Vocabulary vocabulary = new Vocabulary(4);
+		String[] words = { "the", "cat", "sat", "on", "the", "mat", "na\u00efve",
+				"\u4e2d\u6587", "\ud83d\ude00" };
+		for (String word : words) {
+			System.out.println(word + " -> " + vocabulary.addAndGetIndex(word));
+		}
+		System.out.println("size=" + vocabulary.size() + " bytes="
+				+ vocabulary.getNumBytes());
+		File file = File.createTempFile("vocabulary", ".bin");
+		file.deleteOnExit();
+		vocabulary.save(file);
+		Vocabulary mapped = Vocabulary.map(file);
+		View view = mapped.view(0);
+		for (int id = 0; id < mapped.size(); id++) {
+			System.out.println(id + " -> " + view.set(id) + " ("
+					+ mapped.indexOf(view) + ")");
+		}
+		System.out.println("indexOf(dog)=" + mapped.indexOf("dog")
+				+ ", adding gives " + mapped.addAndGetIndex("dog"));
+	}
+}